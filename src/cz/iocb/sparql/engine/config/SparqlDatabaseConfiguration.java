@@ -41,11 +41,13 @@ import cz.iocb.sparql.engine.mapping.ParametrisedBlankNodeMapping;
 import cz.iocb.sparql.engine.mapping.ParametrisedIriMapping;
 import cz.iocb.sparql.engine.mapping.ParametrisedLiteralMapping;
 import cz.iocb.sparql.engine.mapping.QuadMapping;
+import cz.iocb.sparql.engine.mapping.QuadMappingIndex;
 import cz.iocb.sparql.engine.mapping.SingleTableQuadMapping;
 import cz.iocb.sparql.engine.mapping.classes.BlankNodeClass;
 import cz.iocb.sparql.engine.mapping.classes.BuiltinClasses;
 import cz.iocb.sparql.engine.mapping.classes.DataType;
 import cz.iocb.sparql.engine.mapping.classes.IriClass;
+import cz.iocb.sparql.engine.mapping.classes.IriClassIndex;
 import cz.iocb.sparql.engine.mapping.classes.LiteralClass;
 import cz.iocb.sparql.engine.mapping.classes.ResourceClass;
 import cz.iocb.sparql.engine.mapping.classes.UserIriClass;
@@ -77,6 +79,8 @@ public class SparqlDatabaseConfiguration
     protected HashMap<IRI, List<QuadMapping>> mappings = new HashMap<IRI, List<QuadMapping>>();
     protected HashMap<IRI, HashMap<String, ProcedureDefinition>> procedures = new HashMap<IRI, HashMap<String, ProcedureDefinition>>();
     protected HashMap<IRI, HashMap<String, FunctionDefinition>> functions = new HashMap<IRI, HashMap<String, FunctionDefinition>>();
+    private final HashMap<IRI, QuadMappingIndex> mappingIndexes = new HashMap<IRI, QuadMappingIndex>();
+    private volatile IriClassIndex iriClassIndex;
 
 
     public SparqlDatabaseConfiguration(String service, DataSource connectionPool, DatabaseSchema schema,
@@ -631,6 +635,25 @@ public class SparqlDatabaseConfiguration
     }
 
 
+    /**
+     * Returns the index dispatching IRIs to the IRI classes. The index is built again if IRI classes have been added
+     * since it was built.
+     */
+    public IriClassIndex getIriClassIndex()
+    {
+        IriClassIndex index = iriClassIndex;
+
+        // a concurrent rebuild is harmless, since the indexes are equal
+        if(index == null || index.size() != iriClasses.size())
+        {
+            index = new IriClassIndex(iriClasses);
+            iriClassIndex = index;
+        }
+
+        return index;
+    }
+
+
     public UserIriClass getIriClass(String name)
     {
         UserIriClass iriClass = iriClassMap.get(name);
@@ -648,6 +671,26 @@ public class SparqlDatabaseConfiguration
     }
 
 
+    /**
+     * Returns the index of the mappings of the service. The index is built when it is needed for the first time, and
+     * it is built again if mappings have been added since.
+     */
+    public synchronized QuadMappingIndex getMappingIndex(IRI iri)
+    {
+        List<QuadMapping> list = mappings.get(iri);
+        QuadMappingIndex index = mappingIndexes.get(iri);
+        IriClassIndex classIndex = getIriClassIndex();
+
+        if(index == null || index.size() != list.size() || index.getIriClassIndex() != classIndex)
+        {
+            index = new QuadMappingIndex(list, classIndex);
+            mappingIndexes.put(iri, index);
+        }
+
+        return index;
+    }
+
+
     public Set<IRI> getGraphs(IRI iri)
     {
         return graphs.get(iri);
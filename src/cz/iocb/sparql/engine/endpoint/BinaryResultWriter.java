@@ -0,0 +1,271 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import cz.iocb.sparql.engine.mapping.classes.ResultTag;
+import cz.iocb.sparql.engine.request.Result;
+
+
+
+/**
+ * Writer of the compact binary format of SPARQL results.
+ *
+ * <p>
+ * The stream starts with the magic bytes {@code SPRB}, the format version byte, the dictionary capacity and the list
+ * of variables (a count followed by the names). The rest of the stream is a sequence of records, each starting with a
+ * record type byte: {@code 1} is a result row prefixed by its length in bytes, {@code 2} is a warning, {@code 3} is a
+ * boolean result of an ASK query and {@code 0} terminates the stream.
+ *
+ * <p>
+ * A row consists of one term for each variable, starting with a kind byte: {@code 0} unbound, {@code 1} IRI, {@code 2}
+ * blank node, {@code 3} language-tagged literal, {@code 4} integral literal, {@code 5} floating point literal, {@code 6}
+ * decimal literal, {@code 7} boolean literal, {@code 8} other typed literal and {@code 9} simple literal.
+ *
+ * <p>
+ * IRIs, datatypes and language tags are written as dictionary references. The reference {@code 0} is followed by a
+ * string which is assigned the next free identifier (starting from 1) as long as the dictionary capacity is not
+ * exhausted, other references are identifiers of strings seen before. Unsigned numbers are written as base 128
+ * varints, signed numbers as zigzag varints, strings as UTF-8 bytes prefixed by their length, floating point values
+ * as big-endian IEEE 754 doubles and decimal values as a scale followed by the length-prefixed big-endian two's
+ * complement unscaled value.
+ */
+final class BinaryResultWriter
+{
+    static final int version = 1;
+    static final int dictionaryCapacity = 1 << 20;
+
+    private static final byte[] magic = { 'S', 'P', 'R', 'B' };
+
+    private final Utf8Writer out;
+    private final HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+    private final byte[] prefix = new byte[11];
+    private byte[] row = new byte[1024];
+    private int length;
+
+
+    BinaryResultWriter(Utf8Writer out)
+    {
+        this.out = out;
+    }
+
+
+    void writeHeader(List<String> variables) throws IOException
+    {
+        length = 0;
+
+        for(byte value : magic)
+            put(value);
+
+        put((byte) version);
+        putVarint(dictionaryCapacity);
+        putVarint(variables.size());
+
+        for(String variable : variables)
+            putString(variable);
+
+        out.write(row, 0, length);
+    }
+
+
+    void writeRow(Result result, int width) throws IOException, SQLException
+    {
+        length = 0;
+
+        for(int i = 0; i < width; i++)
+        {
+            ResultTag tag = result.getTag(i);
+
+            switch(tag)
+            {
+                case NULL:
+                    put((byte) 0);
+                    break;
+
+                case IRI:
+                    put((byte) 1);
+                    putReference(result.getString(i));
+                    break;
+
+                case BLANKNODEINT:
+                case BLANKNODESTR:
+                    put((byte) 2);
+                    putString(result.getString(i));
+                    break;
+
+                case LANGSTRING:
+                    put((byte) 3);
+                    putReference(result.getLanguage(i));
+                    putString(result.getString(i));
+                    break;
+
+                case SHORT:
+                case INT:
+                case LONG:
+                    long number = result.getLong(i);
+                    put((byte) 4);
+                    putReference(result.getDatatype(i));
+                    putVarint(number << 1 ^ number >> 63);
+                    break;
+
+                case FLOAT:
+                case DOUBLE:
+                    put((byte) 5);
+                    putReference(result.getDatatype(i));
+                    putFixed(Double.doubleToRawLongBits(result.getDouble(i)));
+                    break;
+
+                case INTEGER:
+                case DECIMAL:
+                    BigDecimal decimal = result.getDecimal(i);
+                    byte[] unscaled = decimal.unscaledValue().toByteArray();
+                    put((byte) 6);
+                    putReference(result.getDatatype(i));
+                    putVarint((long) decimal.scale() << 1 ^ decimal.scale() >> 31);
+                    putVarint(unscaled.length);
+                    put(unscaled);
+                    break;
+
+                case BOOLEAN:
+                    put((byte) 7);
+                    put((byte) (result.getLong(i) != 0 ? 1 : 0));
+                    break;
+
+                default:
+                    String datatype = result.getDatatype(i);
+
+                    if(datatype != null)
+                    {
+                        put((byte) 8);
+                        putReference(datatype);
+                    }
+                    else
+                    {
+                        put((byte) 9);
+                    }
+
+                    putString(result.getString(i));
+                    break;
+            }
+        }
+
+        writeRecord(1);
+    }
+
+
+    void writeBoolean(boolean value) throws IOException
+    {
+        length = 0;
+        put((byte) 3);
+        put((byte) (value ? 1 : 0));
+        out.write(row, 0, length);
+    }
+
+
+    void writeWarning(String warning) throws IOException
+    {
+        length = 0;
+        putString(warning);
+        writeRecord(2);
+    }
+
+
+    void writeEnd() throws IOException
+    {
+        prefix[0] = 0;
+        out.write(prefix, 0, 1);
+    }
+
+
+    private void writeRecord(int type) throws IOException
+    {
+        int size = 0;
+
+        prefix[size++] = (byte) type;
+
+        for(long value = length; true; value >>>= 7)
+        {
+            if((value & ~0x7FL) == 0)
+            {
+                prefix[size++] = (byte) value;
+                break;
+            }
+
+            prefix[size++] = (byte) (value & 0x7F | 0x80);
+        }
+
+        out.write(prefix, 0, size);
+        out.write(row, 0, length);
+    }
+
+
+    private void putReference(String value)
+    {
+        Integer id = dictionary.get(value);
+
+        if(id != null)
+        {
+            putVarint(id);
+            return;
+        }
+
+        if(dictionary.size() < dictionaryCapacity)
+            dictionary.put(value, dictionary.size() + 1);
+
+        putVarint(0);
+        putString(value);
+    }
+
+
+    private void putString(String value)
+    {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(data.length);
+        put(data);
+    }
+
+
+    private void putVarint(long value)
+    {
+        while((value & ~0x7FL) != 0)
+        {
+            put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+
+        put((byte) value);
+    }
+
+
+    private void putFixed(long value)
+    {
+        for(int shift = 56; shift >= 0; shift -= 8)
+            put((byte) (value >>> shift));
+    }
+
+
+    private void put(byte[] data)
+    {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, row, length, data.length);
+        length += data.length;
+    }
+
+
+    private void put(byte value)
+    {
+        ensureCapacity(1);
+        row[length++] = value;
+    }
+
+
+    private void ensureCapacity(int size)
+    {
+        if(length + size > row.length)
+            row = Arrays.copyOf(row, Math.max(2 * row.length, length + size));
+    }
+}
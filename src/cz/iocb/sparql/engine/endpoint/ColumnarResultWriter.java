@@ -0,0 +1,366 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import static cz.iocb.sparql.engine.mapping.classes.BuiltinDataTypes.xsdDoubleType;
+import static cz.iocb.sparql.engine.mapping.classes.BuiltinDataTypes.xsdFloatType;
+import static cz.iocb.sparql.engine.mapping.classes.BuiltinDataTypes.xsdIntType;
+import static cz.iocb.sparql.engine.mapping.classes.BuiltinDataTypes.xsdLongType;
+import static cz.iocb.sparql.engine.mapping.classes.BuiltinDataTypes.xsdShortType;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import cz.iocb.sparql.engine.mapping.classes.ResultTag;
+import cz.iocb.sparql.engine.request.Result;
+
+
+
+/**
+ * Writer of the columnar batch format of SPARQL SELECT results.
+ *
+ * <p>
+ * The stream starts with the magic bytes {@code SPRC}, the format version byte, the number of rows per batch and the
+ * list of variables. Each variable is described by its name and by the type of its vectors: {@code 0} for generic
+ * term vectors, {@code 1} for 64-bit integer vectors and {@code 2} for double vectors. The datatype IRI follows the
+ * type of a numeric vector. Numeric vectors are used for variables whose values have a single numeric type known from
+ * the result columns in advance.
+ *
+ * <p>
+ * The rest of the stream is a sequence of records, each starting with a record type byte: {@code 1} is a batch of
+ * rows, {@code 2} is a warning and {@code 0} terminates the stream. A batch consists of the number of rows, the list
+ * of strings added to the dictionary of datatypes and language tags by this batch, and one vector for each variable.
+ * All batches except the last one hold the full number of rows.
+ *
+ * <p>
+ * A numeric vector consists of a validity bitmap (the least significant bit of the first byte belongs to the first
+ * row) followed by one 8-byte value per row. A generic vector consists of one term kind byte per row ({@code 0}
+ * unbound, {@code 1} IRI, {@code 2} blank node, {@code 3} language-tagged literal, {@code 4} typed literal and
+ * {@code 5} simple literal), one 4-byte dictionary identifier per row (the language tag or the datatype of a literal,
+ * identifiers start from 1, zero is used for other terms), the row count plus one 4-byte offsets into the value data
+ * and the UTF-8 encoded value data.
+ *
+ * <p>
+ * Counts and string lengths are written as base 128 varints, fixed size numbers are written in big-endian order.
+ */
+final class ColumnarResultWriter
+{
+    static final int version = 1;
+    static final int batchSize = 4096;
+
+    private static final byte[] magic = { 'S', 'P', 'R', 'C' };
+
+    private static final byte GENERIC = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+
+
+    private static final class ColumnVector
+    {
+        private final byte type;
+        private final String datatype;
+        private final long[] values;
+        private final byte[] kinds;
+        private final int[] extras;
+        private final int[] offsets;
+        private byte[] data;
+
+
+        ColumnVector(byte type, String datatype)
+        {
+            this.type = type;
+            this.datatype = datatype;
+            this.values = type == GENERIC ? null : new long[batchSize];
+            this.kinds = new byte[batchSize];
+            this.extras = type == GENERIC ? new int[batchSize] : null;
+            this.offsets = type == GENERIC ? new int[batchSize + 1] : null;
+            this.data = type == GENERIC ? new byte[1024] : null;
+        }
+
+
+        void add(int row, byte kind, int extra, String value)
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int offset = offsets[row];
+
+            if(offset + bytes.length > data.length)
+                data = Arrays.copyOf(data, Math.max(2 * data.length, offset + bytes.length));
+
+            System.arraycopy(bytes, 0, data, offset, bytes.length);
+
+            kinds[row] = kind;
+            extras[row] = extra;
+            offsets[row + 1] = offset + bytes.length;
+        }
+    }
+
+
+    private final Utf8Writer out;
+    private final ColumnVector[] vectors;
+    private final HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+    private final ArrayList<String> entries = new ArrayList<String>();
+    private byte[] buffer = new byte[1024];
+    private int length;
+    private int rows;
+
+
+    ColumnarResultWriter(Utf8Writer out, Result result)
+    {
+        this.out = out;
+        this.vectors = new ColumnVector[result.getHeads().size()];
+
+        for(int i = 0; i < vectors.length; i++)
+        {
+            Set<ResultTag> tags = result.getTags(i);
+            ResultTag tag = tags != null && tags.size() == 1 ? tags.iterator().next() : null;
+
+            if(tag == ResultTag.SHORT)
+                vectors[i] = new ColumnVector(LONG, xsdShortType.getTypeIri().getValue());
+            else if(tag == ResultTag.INT)
+                vectors[i] = new ColumnVector(LONG, xsdIntType.getTypeIri().getValue());
+            else if(tag == ResultTag.LONG)
+                vectors[i] = new ColumnVector(LONG, xsdLongType.getTypeIri().getValue());
+            else if(tag == ResultTag.FLOAT)
+                vectors[i] = new ColumnVector(DOUBLE, xsdFloatType.getTypeIri().getValue());
+            else if(tag == ResultTag.DOUBLE)
+                vectors[i] = new ColumnVector(DOUBLE, xsdDoubleType.getTypeIri().getValue());
+            else
+                vectors[i] = new ColumnVector(GENERIC, null);
+        }
+    }
+
+
+    void writeHeader(Result result) throws IOException
+    {
+        length = 0;
+
+        put(magic);
+        put((byte) version);
+        putVarint(batchSize);
+        putVarint(vectors.length);
+
+        for(int i = 0; i < vectors.length; i++)
+        {
+            putString(result.getHeads().get(i));
+            put(vectors[i].type);
+
+            if(vectors[i].type != GENERIC)
+                putString(vectors[i].datatype);
+        }
+
+        flush();
+    }
+
+
+    void writeRow(Result result) throws IOException, SQLException
+    {
+        for(int i = 0; i < vectors.length; i++)
+        {
+            ColumnVector vector = vectors[i];
+            ResultTag tag = result.getTag(i);
+
+            if(vector.type == LONG)
+            {
+                vector.kinds[rows] = (byte) (tag == ResultTag.NULL ? 0 : 1);
+                vector.values[rows] = tag == ResultTag.NULL ? 0 : result.getLong(i);
+                continue;
+            }
+            else if(vector.type == DOUBLE)
+            {
+                vector.kinds[rows] = (byte) (tag == ResultTag.NULL ? 0 : 1);
+                vector.values[rows] = tag == ResultTag.NULL ? 0 : Double.doubleToRawLongBits(result.getDouble(i));
+                continue;
+            }
+
+            switch(tag)
+            {
+                case NULL:
+                    vector.add(rows, (byte) 0, 0, "");
+                    break;
+
+                case IRI:
+                    vector.add(rows, (byte) 1, 0, result.getString(i));
+                    break;
+
+                case BLANKNODEINT:
+                case BLANKNODESTR:
+                    vector.add(rows, (byte) 2, 0, result.getString(i));
+                    break;
+
+                case LANGSTRING:
+                    vector.add(rows, (byte) 3, getIdentifier(result.getLanguage(i)), result.getString(i));
+                    break;
+
+                default:
+                    String datatype = result.getDatatype(i);
+
+                    if(datatype != null)
+                        vector.add(rows, (byte) 4, getIdentifier(datatype), result.getString(i));
+                    else
+                        vector.add(rows, (byte) 5, 0, result.getString(i));
+
+                    break;
+            }
+        }
+
+        if(++rows == batchSize)
+            writeBatch();
+    }
+
+
+    void writeWarning(String warning) throws IOException
+    {
+        length = 0;
+        put((byte) 2);
+        putString(warning);
+        flush();
+    }
+
+
+    void writeEnd() throws IOException
+    {
+        if(rows > 0)
+            writeBatch();
+
+        length = 0;
+        put((byte) 0);
+        flush();
+    }
+
+
+    private void writeBatch() throws IOException
+    {
+        length = 0;
+        put((byte) 1);
+        putVarint(rows);
+        putVarint(entries.size());
+
+        for(String entry : entries)
+            putString(entry);
+
+        entries.clear();
+        flush();
+
+        for(ColumnVector vector : vectors)
+        {
+            if(vector.type != GENERIC)
+            {
+                for(int i = 0; i < rows; i += 8)
+                {
+                    int bits = 0;
+
+                    for(int j = i; j < Math.min(rows, i + 8); j++)
+                        bits |= vector.kinds[j] << j - i;
+
+                    put((byte) bits);
+                }
+
+                for(int i = 0; i < rows; i++)
+                    putLong(vector.values[i]);
+            }
+            else
+            {
+                ensureCapacity(9 * rows + 4);
+
+                System.arraycopy(vector.kinds, 0, buffer, length, rows);
+                length += rows;
+
+                for(int i = 0; i < rows; i++)
+                    putInt(vector.extras[i]);
+
+                for(int i = 0; i <= rows; i++)
+                    putInt(vector.offsets[i]);
+
+                flush();
+                out.write(vector.data, 0, vector.offsets[rows]);
+            }
+
+            flush();
+        }
+
+        rows = 0;
+    }
+
+
+    private int getIdentifier(String value)
+    {
+        Integer id = dictionary.get(value);
+
+        if(id == null)
+        {
+            id = dictionary.size() + 1;
+            dictionary.put(value, id);
+            entries.add(value);
+        }
+
+        return id;
+    }
+
+
+    private void flush() throws IOException
+    {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+
+    private void putString(String value)
+    {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(data.length);
+        put(data);
+    }
+
+
+    private void putVarint(long value)
+    {
+        while((value & ~0x7FL) != 0)
+        {
+            put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+
+        put((byte) value);
+    }
+
+
+    private void putLong(long value)
+    {
+        ensureCapacity(8);
+
+        for(int shift = 56; shift >= 0; shift -= 8)
+            buffer[length++] = (byte) (value >>> shift);
+    }
+
+
+    private void putInt(int value)
+    {
+        ensureCapacity(4);
+
+        for(int shift = 24; shift >= 0; shift -= 8)
+            buffer[length++] = (byte) (value >>> shift);
+    }
+
+
+    private void put(byte[] data)
+    {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, buffer, length, data.length);
+        length += data.length;
+    }
+
+
+    private void put(byte value)
+    {
+        ensureCapacity(1);
+        buffer[length++] = value;
+    }
+
+
+    private void ensureCapacity(int size)
+    {
+        if(length + size > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + size));
+    }
+}
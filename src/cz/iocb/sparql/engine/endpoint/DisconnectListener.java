@@ -0,0 +1,102 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import cz.iocb.sparql.engine.request.Request;
+
+
+
+/**
+ * Cancels the query of a client which has disconnected. The disconnection is reported either by the container through
+ * the asynchronous processing events, or by a failure of writing the response.
+ */
+final class DisconnectListener implements AsyncListener
+{
+    private final AtomicLong counter;
+    private Request request;
+    private boolean disconnected;
+    private boolean finished;
+
+
+    DisconnectListener(AtomicLong counter)
+    {
+        this.counter = counter;
+    }
+
+
+    /**
+     * Sets the request to be canceled. If the client has already disconnected, the request is canceled immediately.
+     */
+    synchronized void setRequest(Request request)
+    {
+        this.request = request;
+
+        if(disconnected && request != null)
+            cancel();
+    }
+
+
+    synchronized void finish()
+    {
+        request = null;
+        finished = true;
+    }
+
+
+    synchronized boolean isDisconnected()
+    {
+        return disconnected;
+    }
+
+
+    synchronized void disconnect()
+    {
+        if(disconnected || finished)
+            return;
+
+        disconnected = true;
+        counter.incrementAndGet();
+
+        if(request != null)
+            cancel();
+    }
+
+
+    private void cancel()
+    {
+        try
+        {
+            request.cancel();
+        }
+        catch(SQLException e)
+        {
+        }
+    }
+
+
+    @Override
+    public void onError(AsyncEvent event)
+    {
+        disconnect();
+    }
+
+
+    @Override
+    public void onComplete(AsyncEvent event)
+    {
+    }
+
+
+    @Override
+    public void onTimeout(AsyncEvent event)
+    {
+    }
+
+
+    @Override
+    public void onStartAsync(AsyncEvent event)
+    {
+    }
+}
@@ -1,10 +1,15 @@
 package cz.iocb.sparql.engine.endpoint;
 
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -12,18 +17,33 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 import cz.iocb.sparql.engine.config.SparqlDatabaseConfiguration;
 import cz.iocb.sparql.engine.error.TranslateExceptions;
 import cz.iocb.sparql.engine.error.TranslateMessage;
 import cz.iocb.sparql.engine.mapping.ConstantIriMapping;
+import cz.iocb.sparql.engine.mapping.classes.MapUserIriClass;
+import cz.iocb.sparql.engine.mapping.classes.ResultTag;
+import cz.iocb.sparql.engine.mapping.classes.UserIriClass;
 import cz.iocb.sparql.engine.parser.model.DataSet;
 import cz.iocb.sparql.engine.parser.model.IRI;
 import cz.iocb.sparql.engine.request.BNode;
@@ -31,10 +51,15 @@ import cz.iocb.sparql.engine.request.Engine;
 import cz.iocb.sparql.engine.request.IriNode;
 import cz.iocb.sparql.engine.request.LanguageTaggedLiteral;
 import cz.iocb.sparql.engine.request.LiteralNode;
+import cz.iocb.sparql.engine.request.QueryMetrics;
+import cz.iocb.sparql.engine.request.QueryMetrics.Phase;
 import cz.iocb.sparql.engine.request.RdfNode;
 import cz.iocb.sparql.engine.request.Request;
 import cz.iocb.sparql.engine.request.Result;
 import cz.iocb.sparql.engine.request.Result.ResultType;
+import cz.iocb.sparql.engine.request.SharedIriCache;
+import cz.iocb.sparql.engine.request.SharedIriCacheMBean;
+import cz.iocb.sparql.engine.request.SlowQueryLog;
 import cz.iocb.sparql.engine.request.TypedLiteral;
 
 
@@ -54,7 +79,9 @@ public class EndpointServlet extends HttpServlet
         TRIG("application/trig", ResultType.DESCRIBE, ResultType.CONSTRUCT),
         TURTLE("text/turtle", ResultType.DESCRIBE, ResultType.CONSTRUCT),
         TSV("text/tab-separated-values", ResultType.SELECT, ResultType.ASK, ResultType.DESCRIBE, ResultType.CONSTRUCT),
-        CSV("text/csv", ResultType.SELECT, ResultType.ASK, ResultType.DESCRIBE, ResultType.CONSTRUCT);
+        CSV("text/csv", ResultType.SELECT, ResultType.ASK, ResultType.DESCRIBE, ResultType.CONSTRUCT),
+        BINARY("application/x-sparql-results+binary", ResultType.SELECT, ResultType.ASK),
+        COLUMNAR("application/x-sparql-results+columnar", ResultType.SELECT);
 
         private final String mime;
         private final ResultType[] variants;
@@ -88,12 +115,63 @@ public class EndpointServlet extends HttpServlet
     {
     }
 
+    static interface GraphWriter
+    {
+        void write(Graph data) throws IOException, SQLException;
+    }
+
+    static final String rdfNamespace = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    private static final byte[][] xmlEscapes = Utf8Writer.createEscapeTable("\"'<>&", "&quot;", "&apos;", "&lt;",
+            "&gt;", "&amp;");
+    private static final byte[][] jsonEscapes = Utf8Writer.createEscapeTable("\"\\\n", "\\\"", "\\\\", "\\n");
+    private static final byte[][] tsvEscapes = Utf8Writer.createEscapeTable("\\\t\r\n", "\\\\", "\\t", "\\r",
+            "\\n");
+    private static final byte[][] tsvIriEscapes = Utf8Writer.createEscapeTable("\\\t\r\n>", "\\\\", "\\t",
+            "\\r", "\\n", "\\>");
+    private static final byte[][] tsvLiteralEscapes = Utf8Writer.createEscapeTable("\\\t\r\n\"", "\\\\", "\\t",
+            "\\r", "\\n", "\\\"");
+    private static final byte[][] csvEscapes = Utf8Writer.createEscapeTable("\"", "\"\"");
+
+
+    static
+    {
+        for(int c = 0; c < 32; c++)
+            if(jsonEscapes[c] == null)
+                jsonEscapes[c] = String.format("\\u%04X", c).getBytes(StandardCharsets.US_ASCII);
+    }
+
 
     private Engine engine;
     private SparqlDatabaseConfiguration sparqlConfig;
     private int fetchSize = 1000;
     private long timeout = 1000 * 1000000000l;
     private int processLimit = 100000000;
+    private boolean streaming = false;
+    private int pipelineBatchSize = 0;
+    private int pipelineBatchCount = 4;
+    private boolean parameterized = false;
+    private DataSource lookupPool;
+    private int retryAfter = 10;
+    private QueryScheduler scheduler;
+    private ResponseCache cache;
+    private ObjectName cacheName;
+    private ObjectName iriCacheName;
+    private ScheduledExecutorService dictionaryRefresher;
+    private SlowQueryLog slowQueryLog;
+    private boolean slowQueryEndpoint;
+    private Thread warmUpThread;
+    private volatile boolean ready;
+    private volatile long warmUpTime;
+    private volatile int warmUpFailures;
+    private final AtomicLong disconnects = new AtomicLong();
+    private int staticMaxAge = 86400;
+    private StaticResource htmlPage;
+    private StaticResource infoPage;
+    private volatile HashMap<OutputType, StaticResource> serviceDescription;
+    private boolean serviceDescriptionPending;
+    private long serviceDescriptionRetry;
+    private long serviceDescriptionBackoff;
 
 
     @Override
@@ -125,17 +203,434 @@ public class EndpointServlet extends HttpServlet
                 processLimit = Integer.parseInt(limitValue);
 
 
+            String streamingValue = config.getInitParameter("streaming");
+
+            if(streamingValue != null)
+                streaming = Boolean.parseBoolean(streamingValue);
+
+
+            String pipelineBatchSizeValue = config.getInitParameter("pipeline-batch-size");
+
+            if(pipelineBatchSizeValue != null)
+                pipelineBatchSize = Integer.parseInt(pipelineBatchSizeValue);
+
+
+            String pipelineBatchCountValue = config.getInitParameter("pipeline-batches");
+
+            if(pipelineBatchCountValue != null)
+                pipelineBatchCount = Integer.parseInt(pipelineBatchCountValue);
+
+
+            String cacheVersion = config.getInitParameter("cache-version");
+
+            if(cacheVersion == null)
+                cacheVersion = "";
+
+
+            String translationCacheSizeValue = config.getInitParameter("translation-cache-size");
+            int translationCacheSize = 1000;
+
+            if(translationCacheSizeValue != null)
+                translationCacheSize = Integer.parseInt(translationCacheSizeValue);
+
+
+            String parameterizedValue = config.getInitParameter("parameterized-sql");
+
+            if(parameterizedValue != null)
+                parameterized = Boolean.parseBoolean(parameterizedValue);
+
+
+            String iriCacheSizeValue = config.getInitParameter("iri-cache-size");
+            int iriCacheSize = 100000;
+
+            if(iriCacheSizeValue != null)
+                iriCacheSize = Integer.parseInt(iriCacheSizeValue);
+
+
+            String iriCacheTtlValue = config.getInitParameter("iri-cache-ttl");
+            long iriCacheTtl = 3600 * 1000l;
+
+            if(iriCacheTtlValue != null)
+                iriCacheTtl = Long.parseLong(iriCacheTtlValue) * 1000l;
+
+
+            String iriCacheNegativeTtlValue = config.getInitParameter("iri-cache-negative-ttl");
+            long iriCacheNegativeTtl = 60 * 1000l;
+
+            if(iriCacheNegativeTtlValue != null)
+                iriCacheNegativeTtl = Long.parseLong(iriCacheNegativeTtlValue) * 1000l;
+
+
+            // the translations embed the resolved IRIs, so they must not outlive the unresolved ones
+            String translationCacheTtlValue = config.getInitParameter("translation-cache-ttl");
+            long translationCacheTtl = iriCacheNegativeTtl;
+
+            if(translationCacheTtlValue != null)
+                translationCacheTtl = Math.min(Long.parseLong(translationCacheTtlValue) * 1000l, iriCacheNegativeTtl);
+
+
+            SharedIriCache iriCache = null;
+
+            if(iriCacheSize > 0)
+            {
+                iriCache = new SharedIriCache(iriCacheSize, iriCacheTtl, iriCacheNegativeTtl);
+                iriCacheName = new ObjectName("cz.iocb.sparql.engine:type=IriCache,name="
+                        + ObjectName.quote(config.getServletName()));
+                registerMBean(new StandardMBean(iriCache, SharedIriCacheMBean.class), iriCacheName);
+            }
+
+
             Context context = (Context) (new InitialContext()).lookup("java:comp/env");
             sparqlConfig = (SparqlDatabaseConfiguration) context.lookup(resourceName);
-            engine = new Engine(sparqlConfig);
+            engine = new Engine(sparqlConfig, translationCacheSize, translationCacheTtl, cacheVersion, iriCache);
+
+
+            String lookupResourceName = config.getInitParameter("lookup-resource");
+
+            if(lookupResourceName != null && !lookupResourceName.isEmpty())
+                lookupPool = (DataSource) context.lookup(lookupResourceName);
+
+
+            String slowQueryThresholdValue = config.getInitParameter("slow-query-threshold");
+            long slowQueryThreshold = -1;
+
+            if(slowQueryThresholdValue != null)
+                slowQueryThreshold = Long.parseLong(slowQueryThresholdValue) * 1000000l;
+
+
+            String slowQueryExplainValue = config.getInitParameter("slow-query-explain-sample");
+            double slowQueryExplain = 1;
+
+            if(slowQueryExplainValue != null)
+                slowQueryExplain = Double.parseDouble(slowQueryExplainValue);
+
+
+            String slowQueryAnalyzeValue = config.getInitParameter("slow-query-analyze-sample");
+            double slowQueryAnalyze = 0;
+
+            if(slowQueryAnalyzeValue != null)
+                slowQueryAnalyze = Double.parseDouble(slowQueryAnalyzeValue);
+
+
+            String slowQueryLogSizeValue = config.getInitParameter("slow-query-log-size");
+            int slowQueryLogSize = 100;
+
+            if(slowQueryLogSizeValue != null)
+                slowQueryLogSize = Integer.parseInt(slowQueryLogSizeValue);
+
+
+            String slowQueryFileValue = config.getInitParameter("slow-query-log-file");
+            Path slowQueryFile = null;
+
+            if(slowQueryFileValue != null && !slowQueryFileValue.isEmpty())
+                slowQueryFile = Paths.get(slowQueryFileValue);
+
+
+            String slowQueryFileSizeValue = config.getInitParameter("slow-query-log-file-size");
+            long slowQueryFileSize = 10 * 1024 * 1024l;
+
+            if(slowQueryFileSizeValue != null)
+                slowQueryFileSize = Long.parseLong(slowQueryFileSizeValue);
+
+
+            String slowQueryFilesValue = config.getInitParameter("slow-query-log-files");
+            int slowQueryFiles = 5;
+
+            if(slowQueryFilesValue != null)
+                slowQueryFiles = Integer.parseInt(slowQueryFilesValue);
+
+
+            if(slowQueryThreshold >= 0)
+            {
+                // the plans are obtained outside of the pool executing the queries if possible
+                slowQueryLog = new SlowQueryLog(lookupPool != null ? lookupPool : sparqlConfig.getConnectionPool(),
+                        slowQueryThreshold, slowQueryExplain, slowQueryAnalyze, slowQueryLogSize, slowQueryFile,
+                        slowQueryFileSize, slowQueryFiles);
+                engine.setSlowQueryLog(slowQueryLog);
+            }
+
+
+            // the entries contain the queries of all users, so they are published only if the parameter is set
+            slowQueryEndpoint = Boolean.parseBoolean(config.getInitParameter("slow-query-endpoint"));
+
+
+            String dictionariesValue = config.getInitParameter("iri-dictionaries");
+            boolean dictionaries = false;
+
+            if(dictionariesValue != null)
+                dictionaries = Boolean.parseBoolean(dictionariesValue);
+
+
+            String dictionaryRefreshValue = config.getInitParameter("iri-dictionary-refresh");
+            int dictionaryRefresh = 0;
+
+            if(dictionaryRefreshValue != null)
+                dictionaryRefresh = Integer.parseInt(dictionaryRefreshValue);
+
+
+            if(dictionaries)
+            {
+                loadDictionaries();
+
+                if(dictionaryRefresh > 0)
+                {
+                    dictionaryRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "iri-dictionary-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+                    dictionaryRefresher.scheduleWithFixedDelay(this::refreshDictionaries, dictionaryRefresh,
+                            dictionaryRefresh, TimeUnit.SECONDS);
+                }
+            }
+
+
+            String maxRunningValue = config.getInitParameter("max-running-queries");
+            int maxRunning = getConnectionPoolSize(sparqlConfig.getConnectionPool());
+
+            if(maxRunningValue != null)
+                maxRunning = Integer.parseInt(maxRunningValue);
+
+
+            String maxQueuedValue = config.getInitParameter("max-queued-queries");
+            int maxQueued = 100;
+
+            if(maxQueuedValue != null)
+                maxQueued = Integer.parseInt(maxQueuedValue);
+
+
+            String threadsValue = config.getInitParameter("query-threads");
+            int threads = 0;
+
+            if(threadsValue != null)
+                threads = Integer.parseInt(threadsValue);
+
+
+            String retryAfterValue = config.getInitParameter("retry-after");
+
+            if(retryAfterValue != null)
+                retryAfter = Integer.parseInt(retryAfterValue);
+
+
+            if(maxRunning <= 0 || maxQueued < 0 || threads < 0)
+                throw new IllegalArgumentException("invalid query scheduler configuration");
+
+            scheduler = new QueryScheduler(maxRunning, maxQueued, threads);
+
+
+            String cacheSizeValue = config.getInitParameter("cache-size");
+            long cacheSize = 0;
+
+            if(cacheSizeValue != null)
+                cacheSize = Long.parseLong(cacheSizeValue);
+
+
+            String cacheEntrySizeValue = config.getInitParameter("cache-max-entry-size");
+            long cacheEntrySize = cacheSize / 8;
+
+            if(cacheEntrySizeValue != null)
+                cacheEntrySize = Long.parseLong(cacheEntrySizeValue);
+
+
+            String cacheTtlValue = config.getInitParameter("cache-ttl");
+            long cacheTtl = 3600 * 1000l;
+
+            if(cacheTtlValue != null)
+                cacheTtl = Long.parseLong(cacheTtlValue) * 1000l;
+
+
+            if(cacheSize > 0)
+            {
+                cache = new ResponseCache(cacheVersion, cacheSize, cacheEntrySize, cacheTtl);
+
+                cacheName = new ObjectName("cz.iocb.sparql.engine:type=ResponseCache,name="
+                        + ObjectName.quote(config.getServletName()));
+                registerMBean(new StandardMBean(cache, ResponseCacheMBean.class), cacheName);
+            }
+
+
+            String staticMaxAgeValue = config.getInitParameter("static-max-age");
+
+            if(staticMaxAgeValue != null)
+                staticMaxAge = Integer.parseInt(staticMaxAgeValue);
+
+            htmlPage = new StaticResource("text/html", createHtmlPage());
+            infoPage = new StaticResource("application/json", createInfoPage());
+            getServiceDescription();
+
+
+            String warmUpQueriesValue = config.getInitParameter("warm-up-queries");
+            List<String> warmUpQueries = new ArrayList<String>();
+
+            if(warmUpQueriesValue != null && !warmUpQueriesValue.isEmpty())
+                warmUpQueries = loadWarmUpQueries(Paths.get(warmUpQueriesValue));
+
+
+            String warmUpRoundsValue = config.getInitParameter("warm-up-rounds");
+            int warmUpRounds = 1;
+
+            if(warmUpRoundsValue != null)
+                warmUpRounds = Integer.parseInt(warmUpRoundsValue);
+
+
+            // the explain is disabled unless the parameter is set
+            boolean warmUpExplain = Boolean.parseBoolean(config.getInitParameter("warm-up-explain"));
+
+
+            List<String> queries = new ArrayList<String>();
+
+            for(int i = 0; i < warmUpRounds; i++)
+                queries.addAll(warmUpQueries);
+
+            // the endpoint serves queries during the warm-up, but it does not report to be ready
+            warmUpThread = new Thread(() -> warmUp(queries, warmUpExplain), "sparql-warm-up");
+            warmUpThread.setDaemon(true);
+            warmUpThread.start();
         }
-        catch(NamingException | NumberFormatException e)
+        catch(IOException e)
+        {
+            throw new ServletException(e);
+        }
+        catch(JMException e)
+        {
+            throw new ServletException(e);
+        }
+        catch(NamingException | NumberFormatException | SQLException e)
         {
             throw new ServletException(e);
         }
     }
 
 
+    @Override
+    public void destroy()
+    {
+        if(scheduler != null)
+            scheduler.shutdown();
+
+        if(dictionaryRefresher != null)
+            dictionaryRefresher.shutdownNow();
+
+        if(slowQueryLog != null)
+            slowQueryLog.shutdown();
+
+        if(warmUpThread != null)
+            warmUpThread.interrupt();
+
+        try
+        {
+            if(cacheName != null)
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(cacheName);
+
+            if(iriCacheName != null)
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(iriCacheName);
+        }
+        catch(JMException e)
+        {
+        }
+    }
+
+
+    private void loadDictionaries() throws SQLException
+    {
+        for(UserIriClass iriClass : sparqlConfig.getIriClasses())
+            if(iriClass instanceof MapUserIriClass mapClass)
+                mapClass.loadDictionary(sparqlConfig.getConnectionPool());
+    }
+
+
+    /*
+     * Reloads the dictionaries. The previous dictionaries are used until the reload is finished.
+     */
+    private void refreshDictionaries()
+    {
+        try
+        {
+            loadDictionaries();
+
+            // translations contain the resolved IRIs
+            engine.invalidateIriCache();
+        }
+        catch(SQLException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+
+    private static void registerMBean(Object bean, ObjectName name) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        if(server.isRegistered(name))
+            server.unregisterMBean(name);
+
+        server.registerMBean(bean, name);
+    }
+
+
+    /*
+     * Runs the warm-up corpus and marks the endpoint as ready, even if some of the queries fail.
+     */
+    private void warmUp(List<String> queries, boolean explain)
+    {
+        long start = System.nanoTime();
+
+        // the warm-up only speeds up the first queries, so that its failure does not prevent the endpoint from serving
+        try
+        {
+            warmUpFailures = engine.warmUp(queries, explain);
+        }
+        finally
+        {
+            warmUpTime = System.nanoTime() - start;
+            ready = true;
+        }
+    }
+
+
+    /*
+     * Reads the queries of the warm-up corpus, which is a directory containing one query per file.
+     */
+    private static List<String> loadWarmUpQueries(Path directory) throws IOException
+    {
+        List<String> queries = new ArrayList<String>();
+
+        try(Stream<Path> files = Files.list(directory))
+        {
+            for(Path file : files.filter(Files::isRegularFile).sorted().collect(toList()))
+                queries.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+
+        return queries;
+    }
+
+
+    /*
+     * Returns the maximal number of connections of the common connection pool implementations, or the default value if
+     * the connection pool is not recognized.
+     */
+    private static int getConnectionPoolSize(DataSource connectionPool)
+    {
+        for(String name : new String[] { "getMaxTotal", "getMaxActive", "getMaximumPoolSize", "getMaxPoolSize" })
+        {
+            try
+            {
+                Object value = connectionPool.getClass().getMethod(name).invoke(connectionPool);
+
+                if(value instanceof Integer && (Integer) value > 0)
+                    return (Integer) value;
+            }
+            catch(ReflectiveOperationException | RuntimeException e)
+            {
+            }
+        }
+
+        return 32;
+    }
+
+
     @Override
     protected void doOptions(HttpServletRequest req, HttpServletResponse res) throws IOException, ServletException
     {
@@ -151,11 +646,25 @@ public class EndpointServlet extends HttpServlet
 
         if(isHtmlRequest(req))
         {
-            processHtmlRequest(res);
+            htmlPage.send(req, res, staticMaxAge);
         }
         else if(isInfoRequest(req))
         {
-            processInfoRequest(res);
+            infoPage.send(req, res, staticMaxAge);
+        }
+        else if(isMetricsRequest(req))
+        {
+            processMetricsRequest(res);
+        }
+        else if(isReadyRequest(req))
+        {
+            res.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            res.setContentType("text/plain");
+            writeMessage(res, ready ? "ready" : "warming up");
+        }
+        else if(isSlowQueryRequest(req))
+        {
+            processSlowQueryRequest(res);
         }
         else
         {
@@ -165,12 +674,24 @@ public class EndpointServlet extends HttpServlet
 
             if(query == null)
             {
-                query = "construct {?s ?p ?o} where { graph " + sparqlConfig.getDescriptionGraphIri() + " {?s ?p ?o}}";
+                HashMap<OutputType, StaticResource> description = getServiceDescription();
+                StaticResource resource = null;
+
+                if(description != null)
+                    resource = description.get(detectOutputType(req, ResultType.CONSTRUCT));
+
+                if(resource != null)
+                {
+                    resource.send(req, res, staticMaxAge);
+                    return;
+                }
+
+                query = getServiceDescriptionQuery();
                 defaultGraphs = null;
                 namedGraphs = null;
             }
 
-            process(req, res, query, defaultGraphs, namedGraphs);
+            submit(req, res, query, defaultGraphs, namedGraphs);
         }
     }
 
@@ -190,7 +711,7 @@ public class EndpointServlet extends HttpServlet
             query = new String(req.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
 
 
-        process(req, res, query, defaultGraphs, namedGraphs);
+        submit(req, res, query, defaultGraphs, namedGraphs);
     }
 
 
@@ -209,9 +730,152 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private void process(HttpServletRequest req, HttpServletResponse res, String query, String[] defaultGraphs,
+    private void submit(HttpServletRequest req, HttpServletResponse res, String query, String[] defaultGraphs,
             String[] namedGraphs) throws IOException
     {
+        String key = null;
+
+        if(cache != null && query != null)
+        {
+            key = cache.createKey(query, defaultGraphs, namedGraphs, req.getHeader("accept"),
+                    req.getParameter("format"), req.getParameter("maxrows"), req.getParameter("warnings"));
+
+            ResponseCache.CachedResponse entry = cache.get(key);
+
+            if(entry != null)
+            {
+                processCachedResponse(req, res, entry);
+                return;
+            }
+        }
+
+        String cacheKey = key;
+        DisconnectListener listener = new DisconnectListener(disconnects);
+
+        if(!scheduler.admit())
+        {
+            writeUnavailable(res, "too many queries");
+            return;
+        }
+
+        if(!req.isAsyncSupported())
+        {
+            scheduler.run(() -> process(req, res, query, defaultGraphs, namedGraphs, cacheKey, listener));
+            return;
+        }
+
+        AsyncContext async;
+
+        try
+        {
+            // the query timeout is enforced by the request itself
+            async = req.startAsync();
+            async.setTimeout(0);
+            async.addListener(listener);
+        }
+        catch(IllegalStateException e)
+        {
+            scheduler.release();
+            writeUnavailable(res, "query cannot be scheduled");
+            return;
+        }
+
+        try
+        {
+            scheduler.execute(() -> {
+                try
+                {
+                    scheduler.run(() -> process(req, res, query, defaultGraphs, namedGraphs, cacheKey, listener));
+                }
+                catch(IOException e)
+                {
+                    // the client has disconnected
+                }
+                finally
+                {
+                    async.complete();
+                }
+            });
+        }
+        catch(RejectedExecutionException e)
+        {
+            // the executor has been shut down
+            scheduler.release();
+
+            try
+            {
+                writeUnavailable(res, "query cannot be scheduled");
+            }
+            finally
+            {
+                async.complete();
+            }
+        }
+    }
+
+
+    private void writeUnavailable(HttpServletResponse res, String message) throws IOException
+    {
+        res.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        res.setHeader("Retry-After", Integer.toString(retryAfter));
+        res.setContentType("text/plain");
+        writeMessage(res, message);
+    }
+
+
+    private static void processCachedResponse(HttpServletRequest req, HttpServletResponse res,
+            ResponseCache.CachedResponse entry) throws IOException
+    {
+        setValidationHeaders(res, entry.getEtag(), entry.getLastModified());
+
+        String etags = req.getHeader("if-none-match");
+        boolean modified = true;
+
+        if(etags != null)
+        {
+            modified = !StaticResource.matchesEtag(etags, entry.getEtag());
+        }
+        else
+        {
+            long since = req.getDateHeader("if-modified-since");
+
+            // the header has a precision of seconds
+            if(since >= 0 && entry.getLastModified() / 1000 <= since / 1000)
+                modified = false;
+        }
+
+        if(!modified)
+        {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        res.setContentType(entry.getContentType());
+        res.setContentLength(entry.getBody().length);
+        res.getOutputStream().write(entry.getBody());
+    }
+
+
+    /*
+     * Sets the validators of a cacheable query response. The response has to be revalidated on each use, since it
+     * is not known how long it stays valid, and its format depends on the Accept header.
+     */
+    private static void setValidationHeaders(HttpServletResponse res, String etag, long lastModified)
+    {
+        res.setHeader("ETag", etag);
+        res.setDateHeader("Last-Modified", lastModified);
+        res.setHeader("Cache-Control", "no-cache");
+        res.setHeader("Vary", "Accept");
+    }
+
+
+    private void process(HttpServletRequest req, HttpServletResponse res, String query, String[] defaultGraphs,
+            String[] namedGraphs, String cacheKey, DisconnectListener listener) throws IOException
+    {
+        // the client has disconnected while the query was waiting for execution
+        if(listener.isDisconnected())
+            return;
+
         if(query == null)
         {
             res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -263,29 +927,53 @@ public class EndpointServlet extends HttpServlet
 
             try(Request request = engine.getRequest())
             {
+                request.setOrderedBySubject(streaming);
+                request.setPipeline(pipelineBatchSize, pipelineBatchCount);
+                request.setParameterized(parameterized);
+                request.setLookupPool(lookupPool);
+                listener.setRequest(request);
+
                 try(Result result = request.execute(query, dataSets, 0, limit, fetchSize, timeout))
                 {
                     OutputType format = detectOutputType(req, result.getResultType());
                     res.setContentType(format.getMime());
 
+                    long time = System.currentTimeMillis();
+                    ResponseCache.CapturingOutputStream capture = null;
+
+                    // the results of volatile queries are not cached
+                    if(cacheKey != null && !request.isVolatile())
+                    {
+                        setValidationHeaders(res, ResponseCache.createEtag(cacheKey, time), time);
+                        capture = new ResponseCache.CapturingOutputStream(res.getOutputStream(),
+                                cache.getMaxEntrySize());
+                    }
+
+                    Utf8Writer out = new Utf8Writer(capture != null ? capture : res.getOutputStream());
+                    long start = System.nanoTime();
+
                     switch(result.getResultType())
                     {
                         case ASK:
                             switch(format)
                             {
                                 case SPARQL_JSON:
-                                    writeAskJson(res.getWriter(), result, includeWarnings);
+                                    writeAskJson(out, result, includeWarnings);
                                     break;
                                 case SPARQL_XML:
-                                    writeAskXml(res.getWriter(), result, includeWarnings);
+                                    writeAskXml(out, result, includeWarnings);
                                     break;
                                 case TSV:
                                     // non-standard extension
-                                    writeAskTsv(res.getWriter(), result);
+                                    writeAskTsv(out, result);
                                     break;
                                 case CSV:
                                     // non-standard extension
-                                    writeAskCsv(res.getWriter(), result);
+                                    writeAskCsv(out, result);
+                                    break;
+                                case BINARY:
+                                    // non-standard extension
+                                    writeAskBinary(out, result, includeWarnings);
                                     break;
                                 default:
                                     res.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
@@ -297,16 +985,24 @@ public class EndpointServlet extends HttpServlet
                             switch(format)
                             {
                                 case SPARQL_JSON:
-                                    writeSelectJson(res.getWriter(), result, includeWarnings);
+                                    writeSelectJson(out, result, includeWarnings);
                                     break;
                                 case SPARQL_XML:
-                                    writeSelectXml(res.getWriter(), result, includeWarnings);
+                                    writeSelectXml(out, result, includeWarnings);
                                     break;
                                 case TSV:
-                                    writeSelectTsv(res.getWriter(), result);
+                                    writeSelectTsv(out, result);
                                     break;
                                 case CSV:
-                                    writeSelectCsv(res.getWriter(), result);
+                                    writeSelectCsv(out, result);
+                                    break;
+                                case BINARY:
+                                    // non-standard extension
+                                    writeSelectBinary(out, result, includeWarnings);
+                                    break;
+                                case COLUMNAR:
+                                    // non-standard extension
+                                    writeSelectColumnar(out, result, includeWarnings);
                                     break;
                                 default:
                                     res.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
@@ -316,6 +1012,12 @@ public class EndpointServlet extends HttpServlet
 
                         case DESCRIBE:
                         case CONSTRUCT:
+                            if(request.isGroupedBySubject() && format != OutputType.RDF_JSON)
+                            {
+                                writeGraphStream(out, res, result, format);
+                                break;
+                            }
+
                             Graph data = processResult(result);
 
                             if(data == null)
@@ -324,34 +1026,22 @@ public class EndpointServlet extends HttpServlet
                                 return;
                             }
 
-                            switch(format)
-                            {
-                                case RDF_XML:
-                                    writeGraphXml(res.getWriter(), data);
-                                    break;
-                                case RDF_JSON:
-                                    writeGraphJson(res.getWriter(), data);
-                                    break;
-                                case TURTLE:
-                                case TRIG:
-                                    writeGraphTurtle(res.getWriter(), data, engine.getConfig().getPrefixes());
-                                    break;
-                                case NTRIPLES:
-                                case NQUADS:
-                                    writeGraphTriples(res.getWriter(), data);
-                                    break;
-                                case TSV:
-                                    writeGraphTsv(res.getWriter(), data);
-                                    break;
-                                case CSV:
-                                    writeGraphCsv(res.getWriter(), data);
-                                    break;
-                                default:
-                                    res.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
-                                    break;
-                            }
+                            if(!writeGraph(out, data, format))
+                                res.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
+
                             break;
                     }
+
+                    out.flush();
+
+                    // the rows are fetched lazily during the writing
+                    request.recordPhase(Phase.SERIALIZE, System.nanoTime() - start - result.getFetchTime());
+
+                    byte[] body = capture != null ? capture.getData() : null;
+
+                    if(body != null && res.getStatus() == HttpServletResponse.SC_OK)
+                        cache.put(cacheKey,
+                                cache.createEntry(format.getMime(), body, ResponseCache.createEtag(cacheKey, time), time));
                 }
             }
         }
@@ -362,30 +1052,44 @@ public class EndpointServlet extends HttpServlet
             res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             res.setContentType("text/plain");
 
-            PrintWriter out = res.getWriter();
+            Utf8Writer out = new Utf8Writer(res.getOutputStream());
 
             for(TranslateMessage message : e.getMessages())
                 out.println(message.getCategory().getText() + ": " + message.getRange() + " " + message.getMessage());
+
+            out.flush();
         }
         catch(SQLException e)
         {
+            // the query has been canceled because the client has disconnected
+            if(listener.isDisconnected())
+                return;
+
             res.resetBuffer();
 
             if(e.getErrorCode() == 0 && "57014".equals(e.getSQLState()))
             {
                 res.setStatus(HttpServletResponse.SC_REQUEST_TIMEOUT);
                 res.setContentType("text/plain");
-                res.getWriter().println("request timeout");
+                writeMessage(res, "request timeout");
             }
             else
             {
                 res.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 res.setContentType("text/plain");
-                res.getWriter().println("error: " + e.getClass().getCanonicalName() + ": " + e.getMessage());
+                writeMessage(res, "error: " + e.getClass().getCanonicalName() + ": " + e.getMessage());
             }
         }
+        catch(IOException e)
+        {
+            // writing has failed, so the client has disconnected
+            listener.disconnect();
+        }
         catch(Throwable e)
         {
+            if(listener.isDisconnected())
+                return;
+
             System.err.println("EndpointServlet: log begin");
 
             if(defaultGraphs != null)
@@ -404,66 +1108,157 @@ public class EndpointServlet extends HttpServlet
 
             res.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             res.setContentType("text/plain");
-            res.getWriter().println("error: " + e.getClass().getCanonicalName() + ": " + e.getMessage());
+            writeMessage(res, "error: " + e.getClass().getCanonicalName() + ": " + e.getMessage());
+        }
+        finally
+        {
+            listener.finish();
         }
     }
 
 
-    private void processHtmlRequest(HttpServletResponse res) throws IOException
+    private static void writeMessage(HttpServletResponse res, String message) throws IOException
     {
-        res.setContentType("text/html");
+        Utf8Writer out = new Utf8Writer(res.getOutputStream());
+        out.println(message);
+        out.flush();
+    }
+
+
+    private String getServiceDescriptionQuery()
+    {
+        return "construct {?s ?p ?o} where { graph " + sparqlConfig.getDescriptionGraphIri() + " {?s ?p ?o}}";
+    }
+
+
+    /*
+     * Returns the service description prepared in all supported formats. The description is built on the first use,
+     * if it cannot be built (e.g. the database is not available yet), null is returned and the request is processed
+     * as an ordinary query. The build is retried by a single thread after a delay growing with each failure.
+     */
+    private HashMap<OutputType, StaticResource> getServiceDescription()
+    {
+        if(serviceDescription != null)
+            return serviceDescription;
+
+        synchronized(this)
+        {
+            if(serviceDescriptionPending || serviceDescriptionBackoff > 0
+                    && System.nanoTime() - serviceDescriptionRetry < 0)
+                return serviceDescription;
+
+            serviceDescriptionPending = true;
+        }
+
+        try(Request request = engine.getRequest())
+        {
+            request.setLookupPool(lookupPool);
+
+            Graph data;
+
+            try(Result result = request.execute(getServiceDescriptionQuery(), new ArrayList<DataSet>(), 0, -1,
+                    fetchSize, timeout))
+            {
+                data = processResult(result);
+            }
+
+            if(data == null)
+                return null;
+
+            HashMap<OutputType, StaticResource> description = new HashMap<OutputType, StaticResource>();
+
+            for(OutputType format : OutputType.values())
+            {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                Utf8Writer out = new Utf8Writer(buffer);
+
+                if(!writeGraph(out, data, format))
+                    continue;
+
+                out.flush();
+                description.put(format, new StaticResource(format.getMime(), buffer.toByteArray()));
+            }
+
+            serviceDescription = description;
+        }
+        catch(TranslateExceptions | SQLException | IOException e)
+        {
+            System.err.println("EndpointServlet: cannot prepare the service description: " + e.getMessage());
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                serviceDescriptionPending = false;
+
+                if(serviceDescription == null)
+                {
+                    serviceDescriptionBackoff = Math.min(Math.max(2 * serviceDescriptionBackoff, 1000000000l),
+                            60000000000l);
+                    serviceDescriptionRetry = System.nanoTime() + serviceDescriptionBackoff;
+                }
+            }
+        }
+
+        return serviceDescription;
+    }
+
+
+    private byte[] createHtmlPage() throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
         // @formatter:off
-        res.getOutputStream().print(
+        buffer.writeBytes((
                 "<!DOCTYPE html>\n" +
                 "<html lang='en'>\n" +
                 "  <head>\n" +
                 "    <meta charset='utf-8'>\n" +
                 "    <meta name='viewport' content='width=device-width, initial-scale=1'>\n" +
                 "    <title>YASGUI</title>\n" +
-                "    <style>\n");
+                "    <style>\n").getBytes(StandardCharsets.UTF_8));
 
-                try(InputStream stream = getClass().getResourceAsStream("yasgui.min.css"))
-                {
-                    stream.transferTo(res.getOutputStream());
-                }
+        try(InputStream stream = getClass().getResourceAsStream("yasgui.min.css"))
+        {
+            stream.transferTo(buffer);
+        }
 
-        res.getOutputStream().print(
+        buffer.writeBytes((
                 "    </style>\n" +
-                "    <script>\n");
+                "    <script>\n").getBytes(StandardCharsets.UTF_8));
 
         try(InputStream stream = getClass().getResourceAsStream("yasgui.min.js"))
         {
-            stream.transferTo(res.getOutputStream());
+            stream.transferTo(buffer);
         }
 
-        res.getOutputStream().print(
+        buffer.writeBytes((
                 "    </script>\n" +
-                "    <script>\n");
+                "    <script>\n").getBytes(StandardCharsets.UTF_8));
 
         try(InputStream stream = getClass().getResourceAsStream("endpoint.js"))
         {
-            stream.transferTo(res.getOutputStream());
+            stream.transferTo(buffer);
         }
 
-        res.getOutputStream().print(
+        buffer.writeBytes((
                 "  </script>\n" +
                 "  </head>\n" +
                 "  <body>\n" +
                 "    <div id='yasgui'></div>\n" +
                 "  </body>\n" +
-                "</html>\n");
+                "</html>\n").getBytes(StandardCharsets.UTF_8));
         // @formatter:on
+
+        return buffer.toByteArray();
     }
 
 
-    private void processInfoRequest(HttpServletResponse res) throws IOException
+    private byte[] createInfoPage()
     {
-        res.setContentType("application/json");
-
         final IRI type = new IRI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
 
-        PrintWriter out = res.getWriter();
+        StringBuilder out = new StringBuilder();
 
         out.append("{\n");
         out.append("  \"prefixes\": {\n");
@@ -475,25 +1270,145 @@ public class EndpointServlet extends HttpServlet
         out.append("  },\n");
         out.append("  \"properties\": [\n");
 
-        out.append(sparqlConfig.getMappings(sparqlConfig.getServiceIri()).stream()
-                .filter(m -> m.getPredicate() instanceof ConstantIriMapping) // FIXME:
-                .map(m -> ((IRI) ((ConstantIriMapping) m.getPredicate()).getValue()).getValue()).distinct().sorted()
-                .map(i -> "    \"" + i + "\"").collect(joining(",\n")));
+        out.append(sparqlConfig.getMappings(sparqlConfig.getServiceIri()).stream()
+                .filter(m -> m.getPredicate() instanceof ConstantIriMapping) // FIXME:
+                .map(m -> ((IRI) ((ConstantIriMapping) m.getPredicate()).getValue()).getValue()).distinct().sorted()
+                .map(i -> "    \"" + i + "\"").collect(joining(",\n")));
+
+        out.append("\n");
+        out.append("  ],\n");
+        out.append("  \"classes\": [\n");
+
+        out.append(sparqlConfig.getMappings(sparqlConfig.getServiceIri()).stream()
+                .filter(m -> m.getPredicate() instanceof ConstantIriMapping
+                        && ((ConstantIriMapping) m.getPredicate()).getValue().equals(type)
+                        && m.getObject() instanceof ConstantIriMapping)
+                .map(m -> ((IRI) ((ConstantIriMapping) m.getObject()).getValue()).getValue()).distinct().sorted()
+                .map(i -> "    \"" + i + "\"").collect(joining(",\n")));
+
+        out.append("\n");
+        out.append("  ]\n");
+        out.append("}");
+
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private void processMetricsRequest(HttpServletResponse res) throws IOException
+    {
+        res.setContentType("text/plain; version=0.0.4");
+
+        MetricsWriter out = new MetricsWriter(new Utf8Writer(res.getOutputStream()));
+        scheduler.writeMetrics(out);
+        out.writeMetric("sparql_queries_disconnected_total", "counter",
+                "Number of queries canceled because the client has disconnected.", disconnects.get());
+        writeDictionaryMetrics(out);
+        writeQueryMetrics(out, engine.getMetrics());
+        out.writeMetric("sparql_ready", "gauge", "Whether the endpoint has finished its warm-up.", ready ? 1 : 0);
+        out.writeMetric("sparql_warm_up_seconds", "gauge", "Duration of the warm-up.", warmUpTime / 1e9);
+        out.writeMetric("sparql_warm_up_failures", "gauge", "Number of queries of the warm-up corpus which failed.",
+                warmUpFailures);
+        out.flush();
+    }
+
+
+    private void processSlowQueryRequest(HttpServletResponse res) throws IOException
+    {
+        if(slowQueryLog == null || !slowQueryEndpoint)
+        {
+            res.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            res.setContentType("text/plain");
+            writeMessage(res,
+                    slowQueryLog == null ? "slow query log is not enabled" : "slow query log is not published");
+            return;
+        }
+
+        res.setContentType("application/json");
+
+        Utf8Writer out = new Utf8Writer(res.getOutputStream());
+        out.print("[\n");
+        out.print(String.join(",\n", slowQueryLog.getEntries()));
+        out.print("\n]\n");
+        out.flush();
+    }
+
+
+    private static void writeQueryMetrics(MetricsWriter out, QueryMetrics metrics) throws IOException
+    {
+        out.writeHeader("sparql_query_phase_seconds", "histogram", "Duration of the phases of the query processing.");
+
+        for(Phase phase : Phase.values())
+            out.writeHistogram("sparql_query_phase_seconds", MetricsWriter.label("phase", phase.getName()),
+                    metrics.getPhase(phase), 1e9);
+
+        out.writeHeader("sparql_query_result_rows", "histogram", "Number of rows of the query results.");
+        out.writeHistogram("sparql_query_result_rows", null, metrics.getRows(), 1);
+
+        out.writeHeader("sparql_query_sql_bytes", "histogram", "Length of the generated SQL code.");
+        out.writeHistogram("sparql_query_sql_bytes", null, metrics.getSqlLength(), 1);
+
+        out.writeHeader("sparql_query_large_parse_seconds", "histogram",
+                "Duration of the parsing of queries of at least " + QueryMetrics.largeQueryLength + " characters.");
+        out.writeHistogram("sparql_query_large_parse_seconds", null, metrics.getLargeParse(), 1e9);
+
+        out.writeMetric("sparql_query_parse_fallbacks_total", "counter",
+                "Number of queries parsed again with the full LL prediction.", metrics.getParseFallbacks());
+
+        out.writeHeader("sparql_quad_mapping_candidates", "histogram",
+                "Number of candidate quad mappings of a triple pattern.");
+        out.writeHistogram("sparql_quad_mapping_candidates", null, metrics.getMappingCandidates(), 1);
+
+        out.writeHeader("sparql_service_call_seconds", "histogram", "Duration of the SERVICE calls.");
+        out.writeHistogram("sparql_service_call_seconds", null, metrics.getServiceCalls(), 1e9);
+    }
+
+
+    private void writeDictionaryMetrics(MetricsWriter out) throws IOException
+    {
+        List<MapUserIriClass> classes = new ArrayList<MapUserIriClass>();
+
+        for(UserIriClass iriClass : sparqlConfig.getIriClasses())
+            if(iriClass instanceof MapUserIriClass mapClass && mapClass.getDictionary() != null)
+                classes.add(mapClass);
+
+        if(classes.isEmpty())
+            return;
+
+        out.writeHeader("sparql_iri_dictionary_entries", "gauge", "Number of entries of the IRI dictionary.");
+
+        for(MapUserIriClass iriClass : classes)
+            out.writeSample("sparql_iri_dictionary_entries", MetricsWriter.label("class", iriClass.getName()),
+                    iriClass.getDictionary().size());
+
+        out.writeHeader("sparql_iri_dictionary_bytes", "gauge", "Approximate memory footprint of the IRI dictionary.");
+
+        for(MapUserIriClass iriClass : classes)
+            out.writeSample("sparql_iri_dictionary_bytes", MetricsWriter.label("class", iriClass.getName()),
+                    iriClass.getDictionary().getMemoryFootprint());
+
+        out.writeHeader("sparql_iri_dictionary_load_seconds", "gauge", "Time of the last load of the IRI dictionary.");
+
+        for(MapUserIriClass iriClass : classes)
+            out.writeSample("sparql_iri_dictionary_load_seconds", MetricsWriter.label("class", iriClass.getName()),
+                    iriClass.getDictionary().getLoadTime() / 1e9);
+    }
+
 
-        out.append("\n");
-        out.append("  ],\n");
-        out.append("  \"classes\": [\n");
+    private static boolean isMetricsRequest(HttpServletRequest req)
+    {
+        return req.getParameter("metrics") != null && req.getParameter("query") == null;
+    }
 
-        out.append(sparqlConfig.getMappings(sparqlConfig.getServiceIri()).stream()
-                .filter(m -> m.getPredicate() instanceof ConstantIriMapping
-                        && ((ConstantIriMapping) m.getPredicate()).getValue().equals(type)
-                        && m.getObject() instanceof ConstantIriMapping)
-                .map(m -> ((IRI) ((ConstantIriMapping) m.getObject()).getValue()).getValue()).distinct().sorted()
-                .map(i -> "    \"" + i + "\"").collect(joining(",\n")));
 
-        out.append("\n");
-        out.append("  ]\n");
-        out.append("}");
+    private static boolean isReadyRequest(HttpServletRequest req)
+    {
+        return req.getParameter("ready") != null && req.getParameter("query") == null;
+    }
+
+
+    private static boolean isSlowQueryRequest(HttpServletRequest req)
+    {
+        return req.getParameter("slow-queries") != null && req.getParameter("query") == null;
     }
 
 
@@ -511,6 +1426,15 @@ public class EndpointServlet extends HttpServlet
         if(req.getParameter("info") != null)
             return false;
 
+        if(req.getParameter("metrics") != null)
+            return false;
+
+        if(req.getParameter("slow-queries") != null)
+            return false;
+
+        if(req.getParameter("ready") != null)
+            return false;
+
         if(req.getParameter("format") != null)
             return false;
 
@@ -582,6 +1506,12 @@ public class EndpointServlet extends HttpServlet
                         return OutputType.CSV;
                     case "tsv":
                         return OutputType.TSV;
+                    case "binary":
+                        return OutputType.BINARY;
+                    case "columnar":
+                        if(form == ResultType.SELECT)
+                            return OutputType.COLUMNAR;
+                        break;
                 }
             }
             else if(form == ResultType.CONSTRUCT || form == ResultType.DESCRIBE)
@@ -674,7 +1604,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeSelectXml(PrintWriter out, Result result, boolean includeWarnings)
+    private static void writeSelectXml(Utf8Writer out, Result result, boolean includeWarnings)
             throws IOException, SQLException
     {
         out.println("<?xml version=\"1.0\"?>");
@@ -699,9 +1629,9 @@ public class EndpointServlet extends HttpServlet
 
             for(int i = 0; i < result.getHeads().size(); i++)
             {
-                RdfNode node = result.get(i);
+                ResultTag tag = result.getTag(i);
 
-                if(node == null)
+                if(tag == ResultTag.NULL)
                     continue;
 
 
@@ -709,39 +1639,50 @@ public class EndpointServlet extends HttpServlet
                 writeXmlValue(out, result.getHeads().get(i));
                 out.print("\">");
 
-                if(node instanceof IriNode)
-                {
-                    out.print("<uri>");
-                    writeXmlValue(out, node.getValue());
-                    out.print("</uri>");
-                }
-                else if(node instanceof LanguageTaggedLiteral)
-                {
-                    out.print("<literal xml:lang=\"");
-                    writeXmlValue(out, ((LanguageTaggedLiteral) node).getLanguage());
-                    out.print("\">");
-                    writeXmlValue(out, node.getValue());
-                    out.print("</literal>");
-                }
-                else if(node instanceof TypedLiteral)
-                {
-                    out.print("<literal datatype=\"");
-                    writeXmlValue(out, ((TypedLiteral) node).getDatatype().getValue());
-                    out.print("\">");
-                    writeXmlValue(out, node.getValue());
-                    out.print("</literal>");
-                }
-                else if(node instanceof LiteralNode)
-                {
-                    out.print("<literal>");
-                    writeXmlValue(out, node.getValue());
-                    out.print("</literal>");
-                }
-                else if(node instanceof BNode)
+                switch(tag)
                 {
-                    out.print("<bnode>");
-                    writeXmlValue(out, node.getValue());
-                    out.print("</bnode>");
+                    case IRI:
+                        out.print("<uri>");
+                        writeXmlValue(out, result.getString(i));
+                        out.print("</uri>");
+                        break;
+
+                    case BLANKNODEINT:
+                    case BLANKNODESTR:
+                        out.print("<bnode>");
+                        writeXmlValue(out, result.getString(i));
+                        out.print("</bnode>");
+                        break;
+
+                    case LANGSTRING:
+                        out.print("<literal xml:lang=\"");
+                        writeXmlValue(out, result.getLanguage(i));
+                        out.print("\">");
+                        writeXmlValue(out, result.getString(i));
+                        out.print("</literal>");
+                        break;
+
+                    default:
+                        String datatype = result.getDatatype(i);
+
+                        if(datatype != null)
+                        {
+                            out.print("<literal datatype=\"");
+                            writeXmlValue(out, datatype);
+                            out.print("\">");
+                        }
+                        else
+                        {
+                            out.print("<literal>");
+                        }
+
+                        if(isIntegral(tag))
+                            out.print(result.getLong(i));
+                        else
+                            writeXmlValue(out, result.getString(i));
+
+                        out.print("</literal>");
+                        break;
                 }
 
                 out.println("</binding>");
@@ -770,7 +1711,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeSelectJson(PrintWriter out, Result result, boolean includeWarnings)
+    private static void writeSelectJson(Utf8Writer out, Result result, boolean includeWarnings)
             throws IOException, SQLException
     {
         out.print("{\n\t\"head\": { \"vars\": [ ");
@@ -807,9 +1748,7 @@ public class EndpointServlet extends HttpServlet
 
             for(int i = 0; i < result.getHeads().size(); i++)
             {
-                RdfNode node = result.get(i);
-
-                if(node == null)
+                if(result.getTag(i) == ResultTag.NULL)
                     continue;
 
                 if(hasResultHead)
@@ -820,7 +1759,7 @@ public class EndpointServlet extends HttpServlet
                 out.print("\t\t\"");
                 writeJsonValue(out, result.getHeads().get(i));
                 out.print("\": ");
-                writeJsonNode(out, node);
+                writeJsonNode(out, result, i);
             }
 
             out.print("\n\t}");
@@ -853,7 +1792,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeSelectTsv(PrintWriter out, Result result) throws IOException, SQLException
+    private static void writeSelectTsv(Utf8Writer out, Result result) throws IOException, SQLException
     {
         boolean hasHead = false;
 
@@ -881,7 +1820,7 @@ public class EndpointServlet extends HttpServlet
                 else
                     hasResult = true;
 
-                writeTripleNode(out, result.get(i));
+                writeTripleNode(out, result, i);
             }
 
             out.print("\r\n");
@@ -889,7 +1828,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeSelectCsv(PrintWriter out, Result result) throws IOException, SQLException
+    private static void writeSelectCsv(Utf8Writer out, Result result) throws IOException, SQLException
     {
         boolean hasHead = false;
 
@@ -917,10 +1856,12 @@ public class EndpointServlet extends HttpServlet
                 else
                     hasResult = true;
 
-                RdfNode node = result.get(i);
+                ResultTag tag = result.getTag(i);
 
-                if(node != null)
-                    writeCsvValue(out, node.getValue());
+                if(isIntegral(tag))
+                    out.print(result.getLong(i));
+                else if(tag != ResultTag.NULL)
+                    writeCsvValue(out, result.getString(i));
             }
 
             out.print("\r\n");
@@ -928,7 +1869,44 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeAskXml(PrintWriter out, Result result, boolean includeWarnings)
+    private static void writeSelectBinary(Utf8Writer out, Result result, boolean includeWarnings)
+            throws IOException, SQLException
+    {
+        BinaryResultWriter writer = new BinaryResultWriter(out);
+        int width = result.getHeads().size();
+
+        writer.writeHeader(result.getHeads());
+
+        while(result.next())
+            writer.writeRow(result, width);
+
+        if(includeWarnings)
+            for(String warning : result.getWarnings())
+                writer.writeWarning(warning);
+
+        writer.writeEnd();
+    }
+
+
+    private static void writeSelectColumnar(Utf8Writer out, Result result, boolean includeWarnings)
+            throws IOException, SQLException
+    {
+        ColumnarResultWriter writer = new ColumnarResultWriter(out, result);
+
+        writer.writeHeader(result);
+
+        while(result.next())
+            writer.writeRow(result);
+
+        if(includeWarnings)
+            for(String warning : result.getWarnings())
+                writer.writeWarning(warning);
+
+        writer.writeEnd();
+    }
+
+
+    private static void writeAskXml(Utf8Writer out, Result result, boolean includeWarnings)
             throws IOException, SQLException
     {
         result.next();
@@ -941,7 +1919,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeAskJson(PrintWriter out, Result result, boolean includeWarnings)
+    private static void writeAskJson(Utf8Writer out, Result result, boolean includeWarnings)
             throws IOException, SQLException
     {
         result.next();
@@ -953,7 +1931,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeAskTsv(PrintWriter out, Result result) throws IOException, SQLException
+    private static void writeAskTsv(Utf8Writer out, Result result) throws IOException, SQLException
     {
         result.next();
 
@@ -962,7 +1940,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeAskCsv(PrintWriter out, Result result) throws IOException, SQLException
+    private static void writeAskCsv(Utf8Writer out, Result result) throws IOException, SQLException
     {
         result.next();
 
@@ -971,10 +1949,99 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeGraphXml(PrintWriter out, Graph data) throws IOException, SQLException
+    private static void writeAskBinary(Utf8Writer out, Result result, boolean includeWarnings)
+            throws IOException, SQLException
+    {
+        result.next();
+
+        BinaryResultWriter writer = new BinaryResultWriter(out);
+        writer.writeHeader(List.of());
+        writer.writeBoolean("true".equals(result.get(0).getValue()));
+
+        if(includeWarnings)
+            for(String warning : result.getWarnings())
+                writer.writeWarning(warning);
+
+        writer.writeEnd();
+    }
+
+
+    private boolean writeGraph(Utf8Writer out, Graph data, OutputType format) throws IOException, SQLException
+    {
+        switch(format)
+        {
+            case RDF_XML:
+                writeGraphXml(out, data);
+                return true;
+            case RDF_JSON:
+                writeGraphJson(out, data);
+                return true;
+            case TURTLE:
+            case TRIG:
+                writeGraphTurtle(out, data, engine.getConfig().getPrefixes());
+                return true;
+            case NTRIPLES:
+            case NQUADS:
+                writeGraphTriples(out, data);
+                return true;
+            case TSV:
+                writeGraphTsv(out, data);
+                return true;
+            case CSV:
+                writeGraphCsv(out, data);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+
+    private void writeGraphStream(Utf8Writer out, HttpServletResponse res, Result result, OutputType format)
+            throws IOException, SQLException
+    {
+        switch(format)
+        {
+            case RDF_XML:
+                HashMap<String, String> namespaces = new HashMap<String, String>();
+                namespaces.put(rdfNamespace, "rdf");
+
+                for(Entry<String, String> prefix : engine.getConfig().getPrefixes().entrySet())
+                    if(prefix.getKey().matches("[_a-zA-Z][-._a-zA-Z0-9]*") && !prefix.getKey().equals("rdf"))
+                        namespaces.putIfAbsent(prefix.getValue(), prefix.getKey());
+
+                writeGraphXmlHeader(out, namespaces);
+                processResult(result, data -> writeGraphXmlDescriptions(out, data, namespaces));
+                writeGraphXmlFooter(out);
+                break;
+            case TURTLE:
+            case TRIG:
+                HashMap<String, String> prefixes = new HashMap<String, String>(engine.getConfig().getPrefixes());
+                writeGraphTurtleHeader(out, prefixes);
+                processResult(result, data -> writeGraphTurtleStatements(out, data, prefixes));
+                break;
+            case NTRIPLES:
+            case NQUADS:
+                processResult(result, data -> writeGraphTriples(out, data));
+                break;
+            case TSV:
+                writeGraphTsvHeader(out);
+                processResult(result, data -> writeGraphTsvRows(out, data));
+                break;
+            case CSV:
+                writeGraphCsvHeader(out);
+                processResult(result, data -> writeGraphCsvRows(out, data));
+                break;
+            default:
+                res.setStatus(HttpServletResponse.SC_NOT_ACCEPTABLE);
+                break;
+        }
+    }
+
+
+    private static void writeGraphXml(Utf8Writer out, Graph data) throws IOException, SQLException
     {
         HashMap<String, String> prefixes = new HashMap<String, String>();
-        prefixes.put("http://www.w3.org/1999/02/22-rdf-syntax-ns#", "rdf");
+        prefixes.put(rdfNamespace, "rdf");
 
         for(Entry<RdfNode, LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>> subjects : data.entrySet())
         {
@@ -988,7 +2055,14 @@ public class EndpointServlet extends HttpServlet
             }
         }
 
+        writeGraphXmlHeader(out, prefixes);
+        writeGraphXmlDescriptions(out, data, prefixes);
+        writeGraphXmlFooter(out);
+    }
+
 
+    private static void writeGraphXmlHeader(Utf8Writer out, HashMap<String, String> prefixes) throws IOException
+    {
         out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         out.println("<rdf:RDF");
 
@@ -1002,8 +2076,12 @@ public class EndpointServlet extends HttpServlet
         }
 
         out.println(">");
+    }
 
 
+    private static void writeGraphXmlDescriptions(Utf8Writer out, Graph data, HashMap<String, String> prefixes)
+            throws IOException
+    {
         for(Entry<RdfNode, LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>> subjects : data.entrySet())
         {
             out.print("\t<rdf:Description ");
@@ -1023,12 +2101,20 @@ public class EndpointServlet extends HttpServlet
                 String prefix = predicate.replaceAll("[_a-zA-Z][_a-zA-Z0-9]*$", "");
                 String name = predicate.substring(prefix.length());
 
+                // namespaces unknown in advance are declared locally
+                String qname = prefixes.containsKey(prefix) ? prefixes.get(prefix) + ":" + name : "ns:" + name;
+
                 for(RdfNode value : predicates.getValue())
                 {
                     out.print("\t\t<");
-                    out.print(prefixes.get(prefix));
-                    out.print(":");
-                    out.print(name);
+                    out.print(qname);
+
+                    if(!prefixes.containsKey(prefix))
+                    {
+                        out.print(" xmlns:ns=\"");
+                        writeXmlValue(out, prefix);
+                        out.print("\"");
+                    }
 
                     if(value instanceof IriNode)
                     {
@@ -1063,9 +2149,7 @@ public class EndpointServlet extends HttpServlet
 
                         writeXmlValue(out, value.getValue());
                         out.print("</");
-                        out.print(prefixes.get(prefix));
-                        out.print(":");
-                        out.print(name);
+                        out.print(qname);
                         out.println(">");
                     }
                 }
@@ -1073,12 +2157,16 @@ public class EndpointServlet extends HttpServlet
 
             out.println("\t</rdf:Description>");
         }
+    }
+
 
+    private static void writeGraphXmlFooter(Utf8Writer out) throws IOException
+    {
         out.println("</rdf:RDF>");
     }
 
 
-    private static void writeGraphJson(PrintWriter out, Graph data) throws IOException, SQLException
+    private static void writeGraphJson(Utf8Writer out, Graph data) throws IOException, SQLException
     {
         out.println("{");
 
@@ -1131,7 +2219,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeGraphTurtle(PrintWriter out, Graph data, HashMap<String, String> systemPrefixes)
+    private static void writeGraphTurtle(Utf8Writer out, Graph data, HashMap<String, String> systemPrefixes)
             throws IOException, SQLException
     {
         HashMap<String, String> prefixes = new HashMap<String, String>();
@@ -1155,6 +2243,13 @@ public class EndpointServlet extends HttpServlet
         }
 
 
+        writeGraphTurtleHeader(out, prefixes);
+        writeGraphTurtleStatements(out, data, prefixes);
+    }
+
+
+    private static void writeGraphTurtleHeader(Utf8Writer out, HashMap<String, String> prefixes) throws IOException
+    {
         for(Entry<String, String> prefix : prefixes.entrySet())
         {
             out.print("@prefix ");
@@ -1166,8 +2261,12 @@ public class EndpointServlet extends HttpServlet
 
         if(prefixes.size() > 0)
             out.println();
+    }
 
 
+    private static void writeGraphTurtleStatements(Utf8Writer out, Graph data, HashMap<String, String> prefixes)
+            throws IOException
+    {
         for(Entry<RdfNode, LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>> subjects : data.entrySet())
         {
             writeTripleNode(out, subjects.getKey(), prefixes);
@@ -1203,7 +2302,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeGraphTriples(PrintWriter out, Graph data) throws IOException, SQLException
+    private static void writeGraphTriples(Utf8Writer out, Graph data) throws IOException
     {
         for(Entry<RdfNode, LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>> subjects : data.entrySet())
         {
@@ -1227,10 +2326,21 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeGraphTsv(PrintWriter out, Graph data) throws IOException, SQLException
+    private static void writeGraphTsv(Utf8Writer out, Graph data) throws IOException, SQLException
+    {
+        writeGraphTsvHeader(out);
+        writeGraphTsvRows(out, data);
+    }
+
+
+    private static void writeGraphTsvHeader(Utf8Writer out) throws IOException
     {
         out.print("subject\tpredicate\tobject\r\n");
+    }
+
 
+    private static void writeGraphTsvRows(Utf8Writer out, Graph data) throws IOException
+    {
         for(Entry<RdfNode, LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>> subjects : data.entrySet())
         {
             RdfNode subject = subjects.getKey();
@@ -1253,10 +2363,21 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeGraphCsv(PrintWriter out, Graph data) throws IOException, SQLException
+    private static void writeGraphCsv(Utf8Writer out, Graph data) throws IOException, SQLException
+    {
+        writeGraphCsvHeader(out);
+        writeGraphCsvRows(out, data);
+    }
+
+
+    private static void writeGraphCsvHeader(Utf8Writer out) throws IOException
     {
         out.print("subject,predicate,object\r\n");
+    }
 
+
+    private static void writeGraphCsvRows(Utf8Writer out, Graph data) throws IOException
+    {
         for(Entry<RdfNode, LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>> subjects : data.entrySet())
         {
             RdfNode subject = subjects.getKey();
@@ -1279,7 +2400,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeJsonNode(PrintWriter out, RdfNode node) throws IOException
+    private static void writeJsonNode(Utf8Writer out, RdfNode node) throws IOException
     {
         out.print("{ \"type\": ");
 
@@ -1317,7 +2438,106 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeTripleNode(PrintWriter out, RdfNode node) throws IOException
+    private static void writeJsonNode(Utf8Writer out, Result result, int idx) throws IOException
+    {
+        ResultTag tag = result.getTag(idx);
+
+        out.print("{ \"type\": ");
+
+        if(tag == ResultTag.IRI)
+            out.print("\"uri\",");
+        else if(tag == ResultTag.BLANKNODEINT || tag == ResultTag.BLANKNODESTR)
+            out.print("\"bnode\",");
+        else
+            out.print("\"literal\",");
+
+        out.print(" \"value\": ");
+
+        out.print('"');
+
+        if(isIntegral(tag))
+            out.print(result.getLong(idx));
+        else
+            writeJsonValue(out, result.getString(idx));
+
+        out.print('"');
+
+        String datatype = result.getDatatype(idx);
+
+        if(tag == ResultTag.LANGSTRING)
+        {
+            out.print(", \"xml:lang\": ");
+
+            out.print('"');
+            writeJsonValue(out, result.getLanguage(idx));
+            out.print('"');
+        }
+        else if(datatype != null)
+        {
+            out.print(", \"datatype\": ");
+
+            out.print('"');
+            writeJsonValue(out, datatype);
+            out.print('"');
+        }
+
+        out.print(" }");
+    }
+
+
+    private static void writeTripleNode(Utf8Writer out, Result result, int idx) throws IOException
+    {
+        ResultTag tag = result.getTag(idx);
+
+        switch(tag)
+        {
+            case NULL:
+                break;
+
+            case IRI:
+                out.print('<');
+                writeTsvIriValue(out, result.getString(idx));
+                out.print('>');
+                break;
+
+            case BLANKNODEINT:
+            case BLANKNODESTR:
+                out.print("_:");
+                writeTsvValue(out, result.getString(idx));
+                break;
+
+            case LANGSTRING:
+                out.print('"');
+                writeTsvLiteralValue(out, result.getString(idx));
+                out.print("\"@");
+                writeTsvValue(out, result.getLanguage(idx));
+                break;
+
+            default:
+                out.print('"');
+
+                if(isIntegral(tag))
+                    out.print(result.getLong(idx));
+                else
+                    writeTsvLiteralValue(out, result.getString(idx));
+
+                out.print('"');
+
+                String datatype = result.getDatatype(idx);
+
+                if(datatype != null)
+                {
+                    out.print("^^<");
+                    writeTsvIriValue(out, datatype);
+                    out.print('>');
+                }
+
+                break;
+        }
+    }
+
+
+    private static void writeTripleNode(Utf8Writer out, RdfNode node) throws IOException
     {
         if(node instanceof IriNode)
         {
@@ -1354,7 +2574,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeTripleNode(PrintWriter out, RdfNode node, HashMap<String, String> prefixes)
+    private static void writeTripleNode(Utf8Writer out, RdfNode node, HashMap<String, String> prefixes)
             throws IOException
     {
         if(node instanceof IriNode)
@@ -1375,7 +2595,7 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeTripleIri(PrintWriter out, IriNode node, HashMap<String, String> prefixes)
+    private static void writeTripleIri(Utf8Writer out, IriNode node, HashMap<String, String> prefixes)
             throws IOException
     {
         String iri = node.getValue();
@@ -1400,114 +2620,50 @@ public class EndpointServlet extends HttpServlet
     }
 
 
-    private static void writeXmlValue(PrintWriter out, String value) throws IOException
+    private static boolean isIntegral(ResultTag tag)
     {
-        for(char val : value.toCharArray())
-        {
-            if(val == '"')
-                out.print("&quot;");
-            else if(val == '\'')
-                out.print("&apos;");
-            else if(val == '<')
-                out.print("&lt;");
-            else if(val == '>')
-                out.print("&gt;");
-            else if(val == '&')
-                out.print("&amp;");
-            else
-                out.print(val);
-        }
+        return tag == ResultTag.SHORT || tag == ResultTag.INT || tag == ResultTag.LONG;
     }
 
 
-    private static void writeJsonValue(PrintWriter out, String value) throws IOException
+    private static void writeXmlValue(Utf8Writer out, String value) throws IOException
     {
-        for(char val : value.toCharArray())
-        {
-            if(val == '"')
-                out.print("\\\"");
-            else if(val == '\\')
-                out.print("\\\\");
-            else if(val == '\n')
-                out.print("\\n");
-            else if(val >= 32)
-                out.print(val);
-            else if(val < 10)
-                out.print("\\u000" + (int) val);
-            else if(val < 16)
-                out.print("\\u000" + ('A' + val - 10));
-            else if(val < 26)
-                out.print("\\u001" + (val - 16));
-            else if(val < 32)
-                out.print("\\u001" + ('A' + val - 26));
-        }
+        out.print(value, xmlEscapes);
     }
 
 
-    private static void writeTsvValue(PrintWriter out, String value) throws IOException
+    private static void writeJsonValue(Utf8Writer out, String value) throws IOException
     {
-        for(char val : value.toCharArray())
-        {
-            if(val == '\\')
-                out.print("\\\\");
-            else if(val == '\t')
-                out.print("\\t");
-            else if(val == '\r')
-                out.print("\\r");
-            else if(val == '\n')
-                out.print("\\n");
-            else
-                out.print(val);
-        }
+        out.print(value, jsonEscapes);
     }
 
 
-    private static void writeTsvIriValue(PrintWriter out, String value) throws IOException
+    private static void writeTsvValue(Utf8Writer out, String value) throws IOException
     {
-        for(char val : value.toCharArray())
-        {
-            if(val == '\\')
-                out.print("\\\\");
-            else if(val == '\t')
-                out.print("\\t");
-            else if(val == '\r')
-                out.print("\\r");
-            else if(val == '\n')
-                out.print("\\n");
-            else if(val == '>')
-                out.print("\\>");
-            else
-                out.print(val);
-        }
+        out.print(value, tsvEscapes);
     }
 
 
-    private static void writeTsvLiteralValue(PrintWriter out, String value) throws IOException
+    private static void writeTsvIriValue(Utf8Writer out, String value) throws IOException
     {
-        for(char val : value.toCharArray())
-        {
-            if(val == '\\')
-                out.print("\\\\");
-            else if(val == '\t')
-                out.print("\\t");
-            else if(val == '\r')
-                out.print("\\r");
-            else if(val == '\n')
-                out.print("\\n");
-            else if(val == '"')
-                out.print("\\\"");
-            else
-                out.print(val);
-        }
+        out.print(value, tsvIriEscapes);
+    }
+
+
+    private static void writeTsvLiteralValue(Utf8Writer out, String value) throws IOException
+    {
+        out.print(value, tsvLiteralEscapes);
     }
 
 
-    private static void writeCsvValue(PrintWriter out, String value) throws IOException
+    private static void writeCsvValue(Utf8Writer out, String value) throws IOException
     {
         boolean mustBeQuoted = false;
 
-        for(char val : value.toCharArray())
+        for(int i = 0; i < value.length(); i++)
         {
+            char val = value.charAt(i);
+
             if(val == '"' || val == ',' || val == '\n' || val == '\r')
             {
                 mustBeQuoted = true;
@@ -1517,18 +2673,15 @@ public class EndpointServlet extends HttpServlet
 
 
         if(mustBeQuoted)
+        {
             out.print('"');
-
-        for(char val : value.toCharArray())
+            out.print(value, csvEscapes);
+            out.print('"');
+        }
+        else
         {
-            if(val == '"')
-                out.print("\"\"");
-            else
-                out.print(val);
+            out.print(value);
         }
-
-        if(mustBeQuoted)
-            out.print('"');
     }
 
 
@@ -1540,35 +2693,66 @@ public class EndpointServlet extends HttpServlet
 
         while(result.next())
         {
-            RdfNode subject = result.get(0);
-            RdfNode predicate = result.get(1);
-            RdfNode object = result.get(2);
+            if(addTriple(data, result.get(0), result.get(1), result.get(2)))
+                count++;
 
-            LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>> properties = data.get(subject);
+            if(count > processLimit)
+                return null;
+        }
 
-            if(properties == null)
-            {
-                properties = new LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>();
-                data.put(subject, properties);
-            }
+        return data;
+    }
 
 
-            LinkedHashSet<RdfNode> values = properties.get(predicate);
+    /*
+     * Passes the result to the writer in groups of consecutive triples sharing the same subject, so only one group
+     * is held in memory at a time. Duplicate triples are eliminated within a group only, so the result has to be
+     * grouped by subjects.
+     */
+    private static void processResult(Result result, GraphWriter writer) throws IOException, SQLException
+    {
+        Graph data = new Graph();
+        RdfNode last = null;
+
+        while(result.next())
+        {
+            RdfNode subject = result.get(0);
 
-            if(values == null)
+            if(last != null && !last.equals(subject))
             {
-                values = new LinkedHashSet<RdfNode>();
-                properties.put(predicate, values);
+                writer.write(data);
+                data.clear();
             }
 
-            if(values.add(object))
-                count++;
+            last = subject;
+            addTriple(data, subject, result.get(1), result.get(2));
+        }
 
-            if(count > processLimit)
-                return null;
+        if(!data.isEmpty())
+            writer.write(data);
+    }
+
+
+    private static boolean addTriple(Graph data, RdfNode subject, RdfNode predicate, RdfNode object)
+    {
+        LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>> properties = data.get(subject);
+
+        if(properties == null)
+        {
+            properties = new LinkedHashMap<RdfNode, LinkedHashSet<RdfNode>>();
+            data.put(subject, properties);
         }
 
-        return data;
+
+        LinkedHashSet<RdfNode> values = properties.get(predicate);
+
+        if(values == null)
+        {
+            values = new LinkedHashSet<RdfNode>();
+            properties.put(predicate, values);
+        }
+
+        return values.add(object);
     }
 
 
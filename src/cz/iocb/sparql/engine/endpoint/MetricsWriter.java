@@ -0,0 +1,106 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import java.io.IOException;
+import cz.iocb.sparql.engine.request.Histogram;
+
+
+
+/**
+ * Writer of metrics in the Prometheus text exposition format. Labels are given as preformatted lists, which can be
+ * created by the label method.
+ */
+final class MetricsWriter
+{
+    private final Utf8Writer out;
+
+
+    MetricsWriter(Utf8Writer out)
+    {
+        this.out = out;
+    }
+
+
+    /**
+     * Returns the label with the given name and the value escaped according to the exposition format.
+     */
+    static String label(String name, String value)
+    {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+
+    void writeHeader(String name, String type, String help) throws IOException
+    {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " " + type);
+    }
+
+
+    void writeSample(String name, String label, long value) throws IOException
+    {
+        writeSample(name, label, Long.toString(value));
+    }
+
+
+    void writeSample(String name, String label, double value) throws IOException
+    {
+        writeSample(name, label, Double.toString(value));
+    }
+
+
+    void writeMetric(String name, String type, String help, long value) throws IOException
+    {
+        writeHeader(name, type, help);
+        writeSample(name, null, value);
+    }
+
+
+    void writeMetric(String name, String type, String help, double value) throws IOException
+    {
+        writeHeader(name, type, help);
+        writeSample(name, null, value);
+    }
+
+
+    /**
+     * Writes the samples of a histogram. The label may be null, the values are divided by the scale.
+     */
+    void writeHistogram(String name, String label, Histogram histogram, double scale) throws IOException
+    {
+        String prefix = label != null ? label + "," : "";
+        long[] bounds = histogram.getBounds();
+        long[] counts = histogram.getCumulativeCounts();
+
+        for(int i = 0; i < counts.length; i++)
+            writeSample(name + "_bucket", prefix + "le=\"" + (i < bounds.length ? format(bounds[i], scale) : "+Inf")
+                    + "\"", Long.toString(counts[i]));
+
+        writeSample(name + "_sum", label, format(histogram.getSum(), scale));
+        writeSample(name + "_count", label, Long.toString(counts[counts.length - 1]));
+    }
+
+
+    void flush() throws IOException
+    {
+        out.flush();
+    }
+
+
+    private void writeSample(String name, String label, String value) throws IOException
+    {
+        out.print(name);
+
+        if(label != null)
+            out.print("{" + label + "}");
+
+        out.print(' ');
+        out.print(value);
+        out.println();
+    }
+
+
+    private static String format(long value, double scale)
+    {
+        return scale == 1 ? Long.toString(value) : Double.toString(value / scale);
+    }
+}
@@ -0,0 +1,161 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * Admission control of query executions. At most the given number of queries is executed concurrently, further
+ * admitted queries wait in a bounded queue in the order of their arrival. Queries that do not fit into the queue are
+ * rejected.
+ */
+final class QueryScheduler
+{
+    static interface QueryTask
+    {
+        void run() throws IOException;
+    }
+
+
+    private final Semaphore admission;
+    private final Semaphore execution;
+    private final ExecutorService executor;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+
+    /**
+     * Creates a scheduler running the queries on virtual threads if the number of threads is zero, or on a fixed pool
+     * of platform threads otherwise.
+     */
+    QueryScheduler(int maxRunning, int maxQueued, int threads)
+    {
+        this.admission = new Semaphore(maxRunning + maxQueued);
+        this.execution = new Semaphore(maxRunning, true);
+
+        if(threads > 0)
+            executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("sparql-query-", 0).factory());
+        else
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sparql-query-", 0).factory());
+    }
+
+
+    /**
+     * Admits a query. An admitted query must be passed to {@link #run(QueryTask)}, or released by {@link #release()}
+     * if it cannot be run.
+     */
+    boolean admit()
+    {
+        if(!admission.tryAcquire())
+        {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        admitted.incrementAndGet();
+        return true;
+    }
+
+
+    /**
+     * Runs an admitted query as soon as the number of running queries allows it.
+     */
+    void run(QueryTask task) throws IOException
+    {
+        long begin = System.nanoTime();
+        queued.incrementAndGet();
+
+        try
+        {
+            execution.acquire();
+        }
+        catch(InterruptedException e)
+        {
+            queued.decrementAndGet();
+            admission.release();
+            Thread.currentThread().interrupt();
+            throw new IOException("query execution interrupted", e);
+        }
+
+        queued.decrementAndGet();
+        running.incrementAndGet();
+
+        long wait = System.nanoTime() - begin;
+        waitCount.incrementAndGet();
+        waitTime.addAndGet(wait);
+        maxWaitTime.accumulateAndGet(wait, Math::max);
+
+        try
+        {
+            task.run();
+        }
+        finally
+        {
+            running.decrementAndGet();
+            execution.release();
+            admission.release();
+        }
+    }
+
+
+    /**
+     * Releases an admitted query which cannot be run.
+     */
+    void release()
+    {
+        admission.release();
+    }
+
+
+    void execute(Runnable task)
+    {
+        executor.execute(task);
+    }
+
+
+    void shutdown()
+    {
+        executor.shutdown();
+
+        try
+        {
+            if(!executor.awaitTermination(10, TimeUnit.SECONDS))
+                executor.shutdownNow();
+        }
+        catch(InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    void writeMetrics(MetricsWriter out) throws IOException
+    {
+        out.writeMetric("sparql_queries_queued", "gauge", "Number of admitted queries waiting for execution.",
+                queued.get());
+        out.writeMetric("sparql_queries_running", "gauge", "Number of running queries.", running.get());
+        out.writeMetric("sparql_queries_admitted_total", "counter", "Number of admitted queries.", admitted.get());
+        out.writeMetric("sparql_queries_rejected_total", "counter", "Number of queries rejected by admission control.",
+                rejected.get());
+
+        out.writeHeader("sparql_query_wait_seconds", "summary", "Time spent by queries in the wait queue.");
+        out.writeSample("sparql_query_wait_seconds_sum", null, waitTime.get() / 1e9);
+        out.writeSample("sparql_query_wait_seconds_count", null, waitCount.get());
+
+        out.writeMetric("sparql_query_wait_seconds_max", "gauge", "Maximal time spent by a query in the wait queue.",
+                maxWaitTime.get() / 1e9);
+    }
+}
@@ -0,0 +1,276 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import cz.iocb.sparql.engine.request.TranslationCache;
+
+
+
+/**
+ * Cache of complete responses to identical queries. The cache is bounded by the total size of the cached response
+ * bodies, the least recently used entries are evicted first. Each entry expires after the given time to live.
+ */
+final class ResponseCache implements ResponseCacheMBean
+{
+    static final class CachedResponse
+    {
+        private final String contentType;
+        private final byte[] body;
+        private final String etag;
+        private final long lastModified;
+        private final long expires;
+
+
+        CachedResponse(String contentType, byte[] body, String etag, long lastModified, long expires)
+        {
+            this.contentType = contentType;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+
+        String getContentType()
+        {
+            return contentType;
+        }
+
+
+        byte[] getBody()
+        {
+            return body;
+        }
+
+
+        String getEtag()
+        {
+            return etag;
+        }
+
+
+        long getLastModified()
+        {
+            return lastModified;
+        }
+    }
+
+
+    /*
+     * Output stream copying the written data as long as they do not exceed the size limit.
+     */
+    static final class CapturingOutputStream extends OutputStream
+    {
+        private final OutputStream stream;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private final long limit;
+        private boolean overflow;
+
+
+        CapturingOutputStream(OutputStream stream, long limit)
+        {
+            this.stream = stream;
+            this.limit = limit;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            stream.write(b);
+            capture(new byte[] { (byte) b }, 0, 1);
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            stream.write(b, off, len);
+            capture(b, off, len);
+        }
+
+
+        @Override
+        public void flush() throws IOException
+        {
+            stream.flush();
+        }
+
+
+        private void capture(byte[] b, int off, int len)
+        {
+            if(overflow)
+                return;
+
+            if(copy.size() + len > limit)
+            {
+                overflow = true;
+                copy.reset();
+                return;
+            }
+
+            copy.write(b, off, len);
+        }
+
+
+        byte[] getData()
+        {
+            return overflow ? null : copy.toByteArray();
+        }
+    }
+
+
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final String version;
+    private final long capacity;
+    private final long maxEntrySize;
+    private final long ttl;
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+
+    ResponseCache(String version, long capacity, long maxEntrySize, long ttl)
+    {
+        this.version = version;
+        this.capacity = capacity;
+        this.maxEntrySize = maxEntrySize;
+        this.ttl = ttl;
+    }
+
+
+    /**
+     * Creates the cache key of a request. The output type is represented by the inputs of the content negotiation,
+     * which determine it for the given query.
+     */
+    String createKey(String query, String[] defaultGraphs, String[] namedGraphs, String accept, String format,
+            String maxrows, String warnings)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(version).append('\0');
+        builder.append(TranslationCache.normalizeQuery(query)).append('\0');
+
+        if(defaultGraphs != null)
+            for(String graph : defaultGraphs)
+                builder.append(graph).append('\n');
+
+        builder.append('\0');
+
+        if(namedGraphs != null)
+            for(String graph : namedGraphs)
+                builder.append(graph).append('\n');
+
+        builder.append('\0').append(accept);
+        builder.append('\0').append(format);
+        builder.append('\0').append(maxrows);
+        builder.append('\0').append(warnings);
+
+        return builder.toString();
+    }
+
+
+    synchronized CachedResponse get(String key)
+    {
+        CachedResponse entry = entries.get(key);
+
+        if(entry != null && entry.expires < System.currentTimeMillis())
+        {
+            entries.remove(key);
+            size -= entry.body.length;
+            entry = null;
+        }
+
+        if(entry != null)
+            hits++;
+        else
+            misses++;
+
+        return entry;
+    }
+
+
+    synchronized void put(String key, CachedResponse entry)
+    {
+        if(entry.body.length > maxEntrySize)
+            return;
+
+        CachedResponse previous = entries.put(key, entry);
+
+        if(previous != null)
+            size -= previous.body.length;
+
+        size += entry.body.length;
+
+        for(Iterator<Entry<String, CachedResponse>> it = entries.entrySet().iterator(); size > capacity;)
+        {
+            size -= it.next().getValue().body.length;
+            it.remove();
+        }
+    }
+
+
+    CachedResponse createEntry(String contentType, byte[] body, String etag, long lastModified)
+    {
+        return new CachedResponse(contentType, body, etag, lastModified, lastModified + ttl);
+    }
+
+
+    static String createEtag(String key, long time)
+    {
+        return "\"" + Integer.toHexString(key.hashCode()) + "-" + Long.toHexString(time) + "\"";
+    }
+
+
+    long getMaxEntrySize()
+    {
+        return maxEntrySize;
+    }
+
+
+    @Override
+    public synchronized void invalidate()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+
+    @Override
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+
+    @Override
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+
+    @Override
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+
+    @Override
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+
+    @Override
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+}
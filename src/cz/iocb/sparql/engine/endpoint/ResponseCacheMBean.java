@@ -0,0 +1,26 @@
+package cz.iocb.sparql.engine.endpoint;
+
+
+
+/**
+ * Management interface of the response cache.
+ */
+public interface ResponseCacheMBean
+{
+    void invalidate();
+
+
+    int getEntryCount();
+
+
+    long getSize();
+
+
+    long getCapacity();
+
+
+    long getHitCount();
+
+
+    long getMissCount();
+}
@@ -0,0 +1,123 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+
+/**
+ * Response prepared in advance, held in memory both as plain and gzip compressed bytes. Each representation is
+ * identified by its own strong entity tag derived from the content.
+ */
+final class StaticResource
+{
+    private final String contentType;
+    private final byte[] body;
+    private final byte[] compressedBody;
+    private final String etag;
+    private final String compressedEtag;
+
+
+    StaticResource(String contentType, byte[] body) throws IOException
+    {
+        this.contentType = contentType;
+        this.body = body;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4);
+
+        try(GZIPOutputStream stream = new GZIPOutputStream(buffer))
+        {
+            stream.write(body);
+        }
+
+        this.compressedBody = buffer.toByteArray();
+
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            String hash = HexFormat.of().formatHex(digest, 0, 16);
+            this.etag = "\"" + hash + "\"";
+            this.compressedEtag = "\"" + hash + "-gz\"";
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    void send(HttpServletRequest req, HttpServletResponse res, int maxAge) throws IOException
+    {
+        boolean gzip = acceptsGzip(req.getHeader("accept-encoding"));
+        String tag = gzip ? compressedEtag : etag;
+
+        res.setHeader("ETag", tag);
+        res.setHeader("Cache-Control", "public, max-age=" + maxAge);
+        res.setHeader("Vary", "Accept, Accept-Encoding");
+
+        if(matchesEtag(req.getHeader("if-none-match"), tag))
+        {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        res.setContentType(contentType);
+
+        if(gzip)
+        {
+            res.setHeader("Content-Encoding", "gzip");
+            res.setContentLength(compressedBody.length);
+            res.getOutputStream().write(compressedBody);
+        }
+        else
+        {
+            res.setContentLength(body.length);
+            res.getOutputStream().write(body);
+        }
+    }
+
+
+    /**
+     * Checks whether the value of the If-None-Match header matches the given entity tag.
+     */
+    static boolean matchesEtag(String header, String etag)
+    {
+        if(header == null)
+            return false;
+
+        for(String value : header.split(","))
+            if(value.trim().equals("*") || value.trim().replaceFirst("^W/", "").equals(etag))
+                return true;
+
+        return false;
+    }
+
+
+    private static boolean acceptsGzip(String header)
+    {
+        if(header == null)
+            return false;
+
+        for(String value : header.split(","))
+        {
+            String[] parts = value.split(";");
+
+            if(!parts[0].trim().equalsIgnoreCase("gzip"))
+                continue;
+
+            for(int i = 1; i < parts.length; i++)
+                if(parts[i].trim().matches("q=0(\\.0{0,3})?"))
+                    return false;
+
+            return true;
+        }
+
+        return false;
+    }
+}
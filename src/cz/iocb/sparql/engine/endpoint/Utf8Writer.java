@@ -0,0 +1,227 @@
+package cz.iocb.sparql.engine.endpoint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+
+
+/**
+ * Buffered writer encoding result documents directly into UTF-8 bytes. ASCII characters are escaped by means of
+ * precomputed escape tables, runs of ASCII characters that need no escaping are copied into the buffer as they are.
+ */
+final class Utf8Writer
+{
+    private static final int bufferSize = 1 << 16;
+    private static final byte[] newLine = { '\n' };
+
+    private final OutputStream stream;
+    private final byte[] buffer = new byte[bufferSize];
+    private final byte[] digits = new byte[20];
+    private int position = 0;
+
+
+    Utf8Writer(OutputStream stream)
+    {
+        this.stream = stream;
+    }
+
+
+    /**
+     * Creates an escape table replacing each of the given ASCII characters by the corresponding replacement.
+     */
+    static byte[][] createEscapeTable(String characters, String... replacements)
+    {
+        byte[][] table = new byte[128][];
+
+        for(int i = 0; i < characters.length(); i++)
+            table[characters.charAt(i)] = replacements[i].getBytes(StandardCharsets.US_ASCII);
+
+        return table;
+    }
+
+
+    void print(String value) throws IOException
+    {
+        print(value, null);
+    }
+
+
+    void print(String value, byte[][] escapes) throws IOException
+    {
+        int length = value.length();
+        int i = 0;
+
+        while(i < length)
+        {
+            if(position == buffer.length)
+                flushBuffer();
+
+            int end = Math.min(length, i + buffer.length - position);
+
+            while(i < end)
+            {
+                char c = value.charAt(i);
+
+                if(c >= 0x80 || escapes != null && escapes[c] != null)
+                    break;
+
+                buffer[position++] = (byte) c;
+                i++;
+            }
+
+            if(i == end)
+                continue;
+
+            char c = value.charAt(i++);
+
+            if(c < 0x80)
+            {
+                write(escapes[c]);
+            }
+            else if(Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(value.charAt(i)))
+            {
+                writeCodePoint(Character.toCodePoint(c, value.charAt(i++)));
+            }
+            else if(Character.isSurrogate(c))
+            {
+                print('?');
+            }
+            else
+            {
+                writeCodePoint(c);
+            }
+        }
+    }
+
+
+    void print(char value) throws IOException
+    {
+        if(value < 0x80)
+        {
+            if(position == buffer.length)
+                flushBuffer();
+
+            buffer[position++] = (byte) value;
+        }
+        else if(Character.isSurrogate(value))
+        {
+            print('?');
+        }
+        else
+        {
+            writeCodePoint(value);
+        }
+    }
+
+
+    void print(long value) throws IOException
+    {
+        if(value == Long.MIN_VALUE)
+        {
+            print(Long.toString(value));
+            return;
+        }
+
+        if(value < 0)
+        {
+            print('-');
+            value = -value;
+        }
+
+        int length = 0;
+
+        do
+        {
+            digits[digits.length - ++length] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while(value > 0);
+
+        write(digits, digits.length - length, length);
+    }
+
+
+    void println(String value) throws IOException
+    {
+        print(value);
+        write(newLine);
+    }
+
+
+    void println(char value) throws IOException
+    {
+        print(value);
+        write(newLine);
+    }
+
+
+    void println() throws IOException
+    {
+        write(newLine);
+    }
+
+
+    void flush() throws IOException
+    {
+        flushBuffer();
+        stream.flush();
+    }
+
+
+    private void writeCodePoint(int code) throws IOException
+    {
+        if(buffer.length - position < 4)
+            flushBuffer();
+
+        if(code < 0x800)
+        {
+            buffer[position++] = (byte) (0xC0 | code >> 6);
+            buffer[position++] = (byte) (0x80 | code & 0x3F);
+        }
+        else if(code < 0x10000)
+        {
+            buffer[position++] = (byte) (0xE0 | code >> 12);
+            buffer[position++] = (byte) (0x80 | code >> 6 & 0x3F);
+            buffer[position++] = (byte) (0x80 | code & 0x3F);
+        }
+        else
+        {
+            buffer[position++] = (byte) (0xF0 | code >> 18);
+            buffer[position++] = (byte) (0x80 | code >> 12 & 0x3F);
+            buffer[position++] = (byte) (0x80 | code >> 6 & 0x3F);
+            buffer[position++] = (byte) (0x80 | code & 0x3F);
+        }
+    }
+
+
+    private void write(byte[] data) throws IOException
+    {
+        write(data, 0, data.length);
+    }
+
+
+    void write(byte[] data, int offset, int length) throws IOException
+    {
+        if(buffer.length - position < length)
+            flushBuffer();
+
+        if(length > buffer.length)
+        {
+            stream.write(data, offset, length);
+            return;
+        }
+
+        System.arraycopy(data, offset, buffer, position, length);
+        position += length;
+    }
+
+
+    private void flushBuffer() throws IOException
+    {
+        if(position > 0)
+            stream.write(buffer, 0, position);
+
+        position = 0;
+    }
+}
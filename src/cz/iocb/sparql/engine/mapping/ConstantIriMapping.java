@@ -22,13 +22,10 @@ public class ConstantIriMapping extends ConstantMapping
     @Override
     public ResourceClass getResourceClass()
     {
-        //TODO: use cache
+        UserIriClass iriClass = Request.currentRequest().getConfiguration().getIriClassIndex()
+                .getIriClass((IRI) value);
 
-        for(UserIriClass iriClass : Request.currentRequest().getConfiguration().getIriClasses())
-            if(iriClass.match(value))
-                return iriClass;
-
-        return BuiltinClasses.unsupportedIri;
+        return iriClass != null ? iriClass : BuiltinClasses.unsupportedIri;
     }
 
 
@@ -36,12 +33,9 @@ public class ConstantIriMapping extends ConstantMapping
     @Override
     public List<Column> getColumns()
     {
-        //TODO: use cache
-
-        for(UserIriClass iriClass : Request.currentRequest().getConfiguration().getIriClasses())
-            if(iriClass.match(value))
-                return iriClass.toColumns(value);
+        UserIriClass iriClass = Request.currentRequest().getConfiguration().getIriClassIndex()
+                .getIriClass((IRI) value);
 
-        return BuiltinClasses.unsupportedIri.toColumns(value);
+        return iriClass != null ? iriClass.toColumns(value) : BuiltinClasses.unsupportedIri.toColumns(value);
     }
 }
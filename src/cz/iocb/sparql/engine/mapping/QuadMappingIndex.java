@@ -0,0 +1,273 @@
+package cz.iocb.sparql.engine.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import cz.iocb.sparql.engine.mapping.classes.IriClassIndex;
+import cz.iocb.sparql.engine.mapping.classes.ResourceClass;
+import cz.iocb.sparql.engine.mapping.classes.UserIriClass;
+import cz.iocb.sparql.engine.parser.model.IRI;
+import cz.iocb.sparql.engine.parser.model.VariableOrBlankNode;
+import cz.iocb.sparql.engine.parser.model.triple.Node;
+
+
+
+/**
+ * Index of quad mappings by their graphs, by the constant values of their subjects, predicates and objects, and by the
+ * resource classes of the other ones. It returns the mappings which can match a quad pattern, in the order they are
+ * defined, without matching the pattern against every mapping. The returned mappings still have to be matched, since
+ * the index does not check the conditions between the components of the pattern.
+ */
+public final class QuadMappingIndex
+{
+    private final List<QuadMapping> mappings;
+    private final IriClassIndex iriClassIndex;
+    private final Map<IRI, int[]> graphs;
+    private final Component subjects;
+    private final Component predicates;
+    private final Component objects;
+
+
+    /*
+     * Index of a component of the mappings. Each mapping is indexed either by its constant value, by its resource
+     * class, or by nothing if the component is not mapped.
+     */
+    private static final class Component
+    {
+        private final Object[] keys;
+        private final Map<Node, int[]> constants;
+        private final Map<ResourceClass, int[]> classes;
+
+
+        private Component(List<NodeMapping> mappings)
+        {
+            Map<Node, List<Integer>> constants = new HashMap<Node, List<Integer>>();
+            Map<ResourceClass, List<Integer>> classes = new HashMap<ResourceClass, List<Integer>>();
+
+            keys = new Object[mappings.size()];
+
+            for(int i = 0; i < mappings.size(); i++)
+            {
+                NodeMapping mapping = mappings.get(i);
+
+                if(mapping instanceof ConstantMapping)
+                {
+                    keys[i] = ((ConstantMapping) mapping).getValue();
+                    constants.computeIfAbsent((Node) keys[i], k -> new ArrayList<Integer>()).add(i);
+                }
+                else if(mapping != null)
+                {
+                    keys[i] = mapping.getResourceClass();
+                    classes.computeIfAbsent((ResourceClass) keys[i], k -> new ArrayList<Integer>()).add(i);
+                }
+            }
+
+            this.constants = toArrays(constants);
+            this.classes = toArrays(classes);
+        }
+
+
+        /*
+         * Returns the filter of the mappings which can match the given constant. Each resource class is matched only
+         * once, and the IRI classes only if they are candidates for the constant.
+         */
+        private Filter filter(Node node, Set<UserIriClass> iriClasses)
+        {
+            Set<ResourceClass> matched = new HashSet<ResourceClass>();
+            List<int[]> parts = new ArrayList<int[]>();
+
+            if(constants.containsKey(node))
+                parts.add(constants.get(node));
+
+            for(Entry<ResourceClass, int[]> entry : classes.entrySet())
+            {
+                if(iriClasses != null && entry.getKey() instanceof UserIriClass
+                        && !iriClasses.contains(entry.getKey()))
+                    continue;
+
+                if(entry.getKey().match(node))
+                {
+                    matched.add(entry.getKey());
+                    parts.add(entry.getValue());
+                }
+            }
+
+            return new Filter(parts, i -> keys[i] instanceof ResourceClass ? matched.contains(keys[i])
+                    : keys[i] != null && node.equals(keys[i]));
+        }
+    }
+
+
+    @FunctionalInterface
+    private static interface Check
+    {
+        boolean accept(int position);
+    }
+
+
+    /*
+     * Candidate positions given by a single component of a pattern. They are stored as disjoint parts, the check
+     * decides whether a position belongs to them.
+     */
+    private static final class Filter
+    {
+        private final List<int[]> parts;
+        private final Check check;
+        private final int size;
+
+
+        private Filter(List<int[]> parts, Check check)
+        {
+            this.parts = parts;
+            this.check = check;
+            this.size = parts.stream().mapToInt(p -> p.length).sum();
+        }
+    }
+
+
+    public QuadMappingIndex(List<QuadMapping> mappings, IriClassIndex iriClassIndex)
+    {
+        this.mappings = List.copyOf(mappings);
+        this.iriClassIndex = iriClassIndex;
+
+        Map<IRI, List<Integer>> graphs = new HashMap<IRI, List<Integer>>();
+        List<NodeMapping> subjects = new ArrayList<NodeMapping>();
+        List<NodeMapping> predicates = new ArrayList<NodeMapping>();
+        List<NodeMapping> objects = new ArrayList<NodeMapping>();
+
+        for(int i = 0; i < mappings.size(); i++)
+        {
+            QuadMapping mapping = mappings.get(i);
+            IRI graph = mapping.getGraph() != null ? (IRI) mapping.getGraph().getValue() : null;
+
+            graphs.computeIfAbsent(graph, k -> new ArrayList<Integer>()).add(i);
+            subjects.add(mapping.getSubject());
+            predicates.add(mapping.getPredicate());
+            objects.add(mapping.getObject());
+        }
+
+        this.graphs = toArrays(graphs);
+        this.subjects = new Component(subjects);
+        this.predicates = new Component(predicates);
+        this.objects = new Component(objects);
+    }
+
+
+    /**
+     * Returns the mappings which can match the given components of a quad pattern. The graphs restrict the graphs of
+     * the mappings, the null element stands for the mappings without a graph. If the graphs are null, the mappings
+     * are not restricted by their graphs. Null components and components which are not constant do not restrict the
+     * mappings.
+     */
+    public List<QuadMapping> getCandidates(Collection<IRI> graphs, Node subject, Node predicate, Node object)
+    {
+        List<Filter> filters = new ArrayList<Filter>(4);
+
+        if(graphs != null)
+        {
+            Set<IRI> set = new HashSet<IRI>(graphs);
+            List<int[]> parts = new ArrayList<int[]>();
+
+            for(IRI graph : set)
+                if(this.graphs.containsKey(graph))
+                    parts.add(this.graphs.get(graph));
+
+            filters.add(new Filter(parts, i -> {
+                ConstantIriMapping graph = mappings.get(i).getGraph();
+                return set.contains(graph != null ? (IRI) graph.getValue() : null);
+            }));
+        }
+
+        if(isConstant(subject))
+            filters.add(subjects.filter(subject, getIriClasses(subject)));
+
+        if(isConstant(predicate))
+            filters.add(predicates.filter(predicate, getIriClasses(predicate)));
+
+        if(isConstant(object))
+            filters.add(objects.filter(object, getIriClasses(object)));
+
+        if(filters.isEmpty())
+            return mappings;
+
+        // the smallest filter gives the candidates, the other ones only check them
+        Filter smallest = filters.get(0);
+
+        for(Filter filter : filters)
+            if(filter.size < smallest.size)
+                smallest = filter;
+
+        int[] positions = new int[smallest.size];
+        int count = 0;
+
+        for(int[] part : smallest.parts)
+        {
+            System.arraycopy(part, 0, positions, count, part.length);
+            count += part.length;
+        }
+
+        Arrays.sort(positions);
+
+        List<QuadMapping> candidates = new ArrayList<QuadMapping>();
+
+        for(int position : positions)
+            if(accept(filters, smallest, position))
+                candidates.add(mappings.get(position));
+
+        return candidates;
+    }
+
+
+    private static boolean accept(List<Filter> filters, Filter skipped, int position)
+    {
+        for(Filter filter : filters)
+            if(filter != skipped && !filter.check.accept(position))
+                return false;
+
+        return true;
+    }
+
+
+    public int size()
+    {
+        return mappings.size();
+    }
+
+
+    public IriClassIndex getIriClassIndex()
+    {
+        return iriClassIndex;
+    }
+
+
+    private Set<UserIriClass> getIriClasses(Node node)
+    {
+        if(!(node instanceof IRI))
+            return null;
+
+        return new HashSet<UserIriClass>(iriClassIndex.getCandidates((IRI) node));
+    }
+
+
+    private static boolean isConstant(Node node)
+    {
+        return node != null && !(node instanceof VariableOrBlankNode);
+    }
+
+
+    private static <T> Map<T, int[]> toArrays(Map<T, List<Integer>> lists)
+    {
+        Map<T, int[]> arrays = new HashMap<T, int[]>();
+
+        for(Entry<T, List<Integer>> entry : lists.entrySet())
+            arrays.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+
+        return arrays;
+    }
+}
@@ -5,7 +5,6 @@ import static java.util.stream.Collectors.toList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import cz.iocb.sparql.engine.database.Column;
 import cz.iocb.sparql.engine.database.ConstantColumn;
@@ -17,10 +16,10 @@ import cz.iocb.sparql.engine.parser.model.triple.Node;
 
 public class EnumUserIriClass extends SimpleUserIriClass
 {
-    private final Pattern pattern;
     private final String regexp;
     private final HashMap<IRI, String> values;
     private final String prefix;
+    private final String suffix;
 
 
     public EnumUserIriClass(String name, String sqlType, HashMap<IRI, String> values)
@@ -38,11 +37,29 @@ public class EnumUserIriClass extends SimpleUserIriClass
             length++;
 
         this.prefix = first.substring(0, length);
+        this.suffix = getCommonSuffix(iris);
         this.values = values;
 
-        //FIXME: check whether the pattern is valid also in pcre2
         this.regexp = values.keySet().stream().map(i -> Pattern.quote(i.getValue())).collect(joining("|"));
-        this.pattern = Pattern.compile(regexp);
+    }
+
+
+    private static String getCommonSuffix(List<String> iris)
+    {
+        String suffix = iris.getFirst();
+
+        for(String iri : iris)
+        {
+            int length = 0;
+
+            while(length < suffix.length() && length < iri.length()
+                    && suffix.charAt(suffix.length() - 1 - length) == iri.charAt(iri.length() - 1 - length))
+                length++;
+
+            suffix = suffix.substring(suffix.length() - length);
+        }
+
+        return suffix;
     }
 
 
@@ -66,8 +83,7 @@ public class EnumUserIriClass extends SimpleUserIriClass
     @Override
     public boolean match(IRI iri)
     {
-        Matcher matcher = pattern.matcher(iri.getValue());
-        return matcher.matches();
+        return values.containsKey(iri);
     }
 
 
@@ -78,6 +94,20 @@ public class EnumUserIriClass extends SimpleUserIriClass
     }
 
 
+    @Override
+    public String getCommonPrefix()
+    {
+        return prefix;
+    }
+
+
+    @Override
+    public String getCommonSuffix()
+    {
+        return suffix;
+    }
+
+
     @Override
     protected Column generateFunction(Column parameter)
     {
@@ -5,7 +5,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import cz.iocb.sparql.engine.database.Column;
@@ -31,8 +34,10 @@ public class GeneralUserIriClass extends UserIriClass
 
     private final SqlCheck sqlCheck;
     private final String sqlQuery;
+    private final String batchQuery;
     private final Pattern pattern;
     private final String regexp;
+    private final String prefix;
     private final Function function;
     private final List<Function> inverseFunction;
 
@@ -58,10 +63,74 @@ public class GeneralUserIriClass extends UserIriClass
         }
 
         this.sqlQuery = "SELECT " + inverseFunction.stream().map(f -> f + "(?)").collect(joining(", "));
+        this.batchQuery = "SELECT \"@iri\", "
+                + inverseFunction.stream().map(f -> f + "(\"@iri\")").collect(joining(", "))
+                + " FROM unnest(?::varchar[]) AS \"@iris\"(\"@iri\")";
 
         //FIXME: check whether the pattern is valid also in pcre2
         this.regexp = regexp;
         this.pattern = Pattern.compile(regexp);
+        this.prefix = getLiteralPrefix(regexp);
+    }
+
+
+    /*
+     * Returns the literal prefix every string matching the regular expression starts with. Only simple expressions
+     * are analysed, the empty string is returned if the prefix cannot be easily determined.
+     */
+    static String getLiteralPrefix(String regexp)
+    {
+        // an alternative can start with anything
+        if(regexp.indexOf('|') >= 0)
+            return "";
+
+        StringBuilder prefix = new StringBuilder();
+        int length = regexp.length();
+        int i = regexp.startsWith("^") ? 1 : 0;
+
+        while(i < length)
+        {
+            char c = regexp.charAt(i);
+            String literal;
+            int next;
+
+            if(c == '\\' && i + 1 < length && regexp.charAt(i + 1) == 'Q')
+            {
+                int end = regexp.indexOf("\\E", i + 2);
+                literal = regexp.substring(i + 2, end < 0 ? length : end);
+                next = end < 0 ? length : end + 2;
+            }
+            else if(c == '\\' && i + 1 < length && !Character.isLetterOrDigit(regexp.charAt(i + 1)))
+            {
+                literal = String.valueOf(regexp.charAt(i + 1));
+                next = i + 2;
+            }
+            else if(c != '\\' && ".[](){}*+?^$".indexOf(c) < 0)
+            {
+                literal = String.valueOf(c);
+                next = i + 1;
+            }
+            else
+            {
+                break;
+            }
+
+            if(next < length && "*?{".indexOf(regexp.charAt(next)) >= 0)
+            {
+                // the last character of the literal is optional or repeated
+                prefix.append(literal, 0, Math.max(0, literal.length() - 1));
+                break;
+            }
+
+            prefix.append(literal);
+
+            if(next < length && regexp.charAt(next) == '+')
+                break;
+
+            i = next;
+        }
+
+        return prefix.toString();
     }
 
 
@@ -84,7 +153,7 @@ public class GeneralUserIriClass extends UserIriClass
         if(hit != null)
             return hit;
 
-        try(PreparedStatement statement = Request.currentRequest().getStatement(sqlQuery))
+        try(PreparedStatement statement = Request.currentRequest().getLookupStatement(sqlQuery))
         {
             for(int i = 1; i <= getColumnCount(); i++)
                 statement.setString(i, iri.getValue());
@@ -109,6 +178,47 @@ public class GeneralUserIriClass extends UserIriClass
     }
 
 
+    @Override
+    public void resolve(Collection<IRI> iris)
+    {
+        IriCache cache = Request.currentRequest().getIriCache();
+        List<IRI> candidates = new ArrayList<IRI>();
+        Set<IRI> checked = new HashSet<IRI>();
+
+        for(IRI iri : getUnresolved(iris))
+        {
+            boolean matches = pattern.matcher(iri.getValue()).matches();
+
+            if(matches || sqlCheck == SqlCheck.IF_NOT_MATCH)
+                candidates.add(iri);
+
+            if(matches ? sqlCheck == SqlCheck.IF_MATCH : sqlCheck == SqlCheck.IF_NOT_MATCH)
+                checked.add(iri);
+        }
+
+        executeBatch(batchQuery, candidates, (iri, result) -> {
+            List<Column> columns = new ArrayList<Column>();
+            boolean match = true;
+
+            for(int i = 0; i < getColumnCount(); i++)
+            {
+                String value = result.getString(i + 2);
+
+                if(value == null)
+                    match = false;
+
+                columns.add(new ConstantColumn(value, sqlTypes.get(i)));
+            }
+
+            // a mismatch is stored only if it would be detected by the check
+            if(!match && checked.contains(iri))
+                cache.storeToCache(iri, this, IriCache.mismatch);
+            else
+                cache.storeToCache(iri, this, columns);
+        });
+    }
+
+
     @Override
     public List<Column> fromGeneralClass(List<Column> columns)
     {
@@ -353,6 +463,14 @@ public class GeneralUserIriClass extends UserIriClass
     }
 
 
+    @Override
+    public String getCommonPrefix()
+    {
+        // the IRIs not matching the pattern can be accepted by the check
+        return sqlCheck == SqlCheck.IF_NOT_MATCH ? "" : prefix;
+    }
+
+
     private boolean check(IRI iri)
     {
         IriCache cache = Request.currentRequest().getIriCache();
@@ -364,7 +482,7 @@ public class GeneralUserIriClass extends UserIriClass
         else if(hit != null)
             return true;
 
-        try(PreparedStatement statement = Request.currentRequest().getStatement(sqlQuery))
+        try(PreparedStatement statement = Request.currentRequest().getLookupStatement(sqlQuery))
         {
             for(int i = 1; i <= getColumnCount(); i++)
                 statement.setString(i, iri.getValue());
@@ -18,6 +18,8 @@ public class IntegerUserIriClass extends SimpleUserIriClass
     private final String prefix;
     private final String suffix;
     private final int length;
+    private final boolean custom;
+    private final long max;
 
 
     public IntegerUserIriClass(String name, String sqlType, String prefix, int length, String pattern, String suffix)
@@ -27,9 +29,11 @@ public class IntegerUserIriClass extends SimpleUserIriClass
         this.length = length;
         this.prefix = prefix;
         this.suffix = suffix;
+        this.custom = pattern != null;
 
 
         StringBuilder builder = new StringBuilder();
+        long max = 0;
 
         builder.append(Pattern.quote(prefix));
 
@@ -38,14 +42,16 @@ public class IntegerUserIriClass extends SimpleUserIriClass
         else if(length > 0)
             builder.append(String.format("[0-9]{%d}", length));
         else if(sqlType.equals("smallint"))
-            builder.append(generateMaxNumberPattern("32767", -length));
+            builder.append(generateMaxNumberPattern(Long.toString(max = Short.MAX_VALUE), -length));
         else if(sqlType.equals("integer"))
-            builder.append(generateMaxNumberPattern("2147483647", -length));
+            builder.append(generateMaxNumberPattern(Long.toString(max = Integer.MAX_VALUE), -length));
         else if(sqlType.equals("bigint"))
-            builder.append(generateMaxNumberPattern("9223372036854775807", -length));
+            builder.append(generateMaxNumberPattern(Long.toString(max = Long.MAX_VALUE), -length));
         else
             throw new IllegalArgumentException("unsupported sql numeric type: " + sqlType);
 
+        this.max = max;
+
         if(suffix != null)
             builder.append(Pattern.quote(suffix));
 
@@ -86,13 +92,20 @@ public class IntegerUserIriClass extends SimpleUserIriClass
         assert match(iri);
 
         String value = iri.getValue();
+        int end = value.length() - (suffix != null ? suffix.length() : 0);
+        String id;
 
-        String id = value.substring(prefix.length(), value.length() - (suffix != null ? suffix.length() : 0));
-
-        id = id.replaceFirst("^0+", "");
+        if(custom)
+        {
+            id = value.substring(prefix.length(), end).replaceFirst("^0+", "");
 
-        if(id.isEmpty())
-            id = "0";
+            if(id.isEmpty())
+                id = "0";
+        }
+        else
+        {
+            id = value.substring(scan(value), end);
+        }
 
         return List.of(new ConstantColumn(id, sqlTypes.get(0)));
     }
@@ -109,11 +122,59 @@ public class IntegerUserIriClass extends SimpleUserIriClass
     @Override
     public boolean match(IRI iri)
     {
+        if(!custom)
+            return scan(iri.getValue()) >= 0;
+
         Matcher matcher = pattern.matcher(iri.getValue());
         return matcher.matches();
     }
 
 
+    /*
+     * Matches the IRI in the same way as the generated regular expression does. It returns the position of the number
+     * without its leading zeros, or -1 if the IRI does not match.
+     */
+    private int scan(String value)
+    {
+        int start = prefix.length();
+        int end = value.length() - (suffix != null ? suffix.length() : 0);
+
+        if(end <= start || !value.startsWith(prefix) || suffix != null && !value.endsWith(suffix))
+            return -1;
+
+        int digits = end - start;
+        int significant = end - 1;
+        long number = 0;
+
+        for(int i = start; i < end; i++)
+        {
+            int digit = value.charAt(i) - '0';
+
+            if(digit < 0 || digit > 9)
+                return -1;
+
+            if(digit > 0 && significant > i)
+                significant = i;
+
+            if(length <= 0 && number > (max - digit) / 10)
+                return -1;
+
+            number = 10 * number + digit;
+        }
+
+        if(length > 0)
+            return digits == length ? significant : -1;
+
+        // the numbers longer than the minimal length cannot have leading zeros
+        int minLength = Math.max(-length, 1);
+
+        if(digits < minLength || digits > minLength && value.charAt(start) == '0')
+            return -1;
+
+        return significant;
+    }
+
+
     @Override
     public int getCheckCost()
     {
@@ -121,6 +182,20 @@ public class IntegerUserIriClass extends SimpleUserIriClass
     }
 
 
+    @Override
+    public String getCommonPrefix()
+    {
+        return prefix != null ? prefix : "";
+    }
+
+
+    @Override
+    public String getCommonSuffix()
+    {
+        return suffix != null ? suffix : "";
+    }
+
+
     @Override
     protected Column generateFunction(Column parameter)
     {
@@ -0,0 +1,137 @@
+package cz.iocb.sparql.engine.mapping.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import cz.iocb.sparql.engine.parser.model.IRI;
+
+
+
+/**
+ * Dispatch of IRIs to IRI classes. The classes are indexed by a trie of their common prefixes, so that an IRI is
+ * matched only against the classes the prefix and the suffix of which fit the IRI. The classes are tried in the order
+ * in which they are configured.
+ */
+public final class IriClassIndex
+{
+    private final List<UserIriClass> classes;
+    private final TrieNode root = new TrieNode();
+
+
+    private static final class TrieNode
+    {
+        private char[] labels = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private int[] classes = new int[0];
+
+
+        private TrieNode getChild(char label)
+        {
+            int index = Arrays.binarySearch(labels, label);
+            return index >= 0 ? children[index] : null;
+        }
+
+
+        private TrieNode addChild(char label)
+        {
+            int index = Arrays.binarySearch(labels, label);
+
+            if(index >= 0)
+                return children[index];
+
+            index = -index - 1;
+
+            TrieNode child = new TrieNode();
+
+            char[] newLabels = new char[labels.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            newLabels[index] = label;
+
+            TrieNode[] newChildren = new TrieNode[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            newChildren[index] = child;
+
+            labels = newLabels;
+            children = newChildren;
+
+            return child;
+        }
+    }
+
+
+    public IriClassIndex(List<UserIriClass> classes)
+    {
+        this.classes = List.copyOf(classes);
+
+        for(int i = 0; i < this.classes.size(); i++)
+        {
+            String prefix = this.classes.get(i).getCommonPrefix();
+            TrieNode node = root;
+
+            for(int c = 0; c < prefix.length(); c++)
+                node = node.addChild(prefix.charAt(c));
+
+            node.classes = Arrays.copyOf(node.classes, node.classes.length + 1);
+            node.classes[node.classes.length - 1] = i;
+        }
+    }
+
+
+    /**
+     * Returns the classes which can match the IRI, in the order in which they are configured.
+     */
+    public List<UserIriClass> getCandidates(IRI iri)
+    {
+        String value = iri.getValue();
+        int[] positions = new int[8];
+        int count = 0;
+
+        TrieNode node = root;
+
+        for(int i = 0; node != null; i++)
+        {
+            if(count + node.classes.length > positions.length)
+                positions = Arrays.copyOf(positions, Math.max(2 * positions.length, count + node.classes.length));
+
+            System.arraycopy(node.classes, 0, positions, count, node.classes.length);
+            count += node.classes.length;
+
+            node = i < value.length() ? node.getChild(value.charAt(i)) : null;
+        }
+
+        Arrays.sort(positions, 0, count);
+
+        List<UserIriClass> candidates = new ArrayList<UserIriClass>(count);
+
+        for(int i = 0; i < count; i++)
+        {
+            UserIriClass iriClass = classes.get(positions[i]);
+
+            if(value.endsWith(iriClass.getCommonSuffix()))
+                candidates.add(iriClass);
+        }
+
+        return candidates;
+    }
+
+
+    /**
+     * Returns the first class matching the IRI, or null if there is no such class.
+     */
+    public UserIriClass getIriClass(IRI iri)
+    {
+        for(UserIriClass iriClass : getCandidates(iri))
+            if(iriClass.match(iri))
+                return iriClass;
+
+        return null;
+    }
+
+
+    public int size()
+    {
+        return classes.size();
+    }
+}
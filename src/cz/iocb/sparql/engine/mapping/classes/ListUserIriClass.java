@@ -3,7 +3,11 @@ package cz.iocb.sparql.engine.mapping.classes;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import cz.iocb.sparql.engine.database.Column;
 import cz.iocb.sparql.engine.database.ConstantColumn;
 import cz.iocb.sparql.engine.database.ExpressionColumn;
@@ -22,6 +26,7 @@ public class ListUserIriClass extends SimpleUserIriClass
     private final Table table;
     private final TableColumn column;
     private final String sqlQuery;
+    private final String batchQuery;
 
 
     public ListUserIriClass(String name, Table table, TableColumn column)
@@ -32,6 +37,8 @@ public class ListUserIriClass extends SimpleUserIriClass
         this.column = column;
 
         this.sqlQuery = String.format("(SELECT 1 FROM %s WHERE %s = ?::varchar)", table, column);
+        this.batchQuery = String.format("SELECT \"@iri\" FROM unnest(?::varchar[]) AS \"@iris\"(\"@iri\") "
+                + "WHERE EXISTS (SELECT 1 FROM %s WHERE %s = \"@iri\")", table, column);
     }
 
 
@@ -64,7 +71,7 @@ public class ListUserIriClass extends SimpleUserIriClass
         else if(hit != null)
             return true;
 
-        try(PreparedStatement statement = Request.currentRequest().getStatement(sqlQuery))
+        try(PreparedStatement statement = Request.currentRequest().getLookupStatement(sqlQuery))
         {
             statement.setString(1, iri.getValue());
 
@@ -87,6 +94,22 @@ public class ListUserIriClass extends SimpleUserIriClass
     }
 
 
+    @Override
+    public void resolve(Collection<IRI> iris)
+    {
+        IriCache cache = Request.currentRequest().getIriCache();
+        Set<IRI> unresolved = new LinkedHashSet<IRI>(getUnresolved(iris));
+
+        executeBatch(batchQuery, new ArrayList<IRI>(unresolved), (iri, result) -> {
+            if(unresolved.remove(iri))
+                cache.storeToCache(iri, this, List.of(new ConstantColumn(iri.getValue(), "varchar")));
+        });
+
+        for(IRI iri : unresolved)
+            cache.storeToCache(iri, this, IriCache.mismatch);
+    }
+
+
     @Override
     public int getCheckCost()
     {
@@ -0,0 +1,314 @@
+package cz.iocb.sparql.engine.mapping.classes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import javax.sql.DataSource;
+
+
+
+/**
+ * Compact in-memory bidirectional dictionary of a mapping table. The strings are stored as UTF-8 bytes in large pages
+ * and both directions are indexed by open addressing tables of entry numbers, so that the dictionary does not consist
+ * of millions of small objects.
+ */
+public final class MapDictionary
+{
+    private static final int pageBits = 24;
+    private static final int pageSize = 1 << pageBits;
+    private static final int fetchSize = 10000;
+
+    private byte[][] pages = new byte[16][];
+    private int pageCount = 0;
+    private int pageUsed = pageSize;
+
+    private long[] keys = new long[1024];
+    private long[] values = new long[1024];
+    private int count = 0;
+
+    private int[] keyIndex;
+    private int[] valueIndex;
+
+    private long loadTime;
+
+
+    private MapDictionary()
+    {
+    }
+
+
+    /**
+     * Loads the pairs of the given query through a cursor. The first column of the query contains the keys, the
+     * second one the values. Only the first value of a key is used.
+     */
+    static MapDictionary load(DataSource pool, String query) throws SQLException
+    {
+        long start = System.nanoTime();
+        MapDictionary dictionary = new MapDictionary();
+
+        try(Connection connection = pool.getConnection())
+        {
+            boolean autoCommit = connection.getAutoCommit();
+
+            // the cursor based fetching requires a transaction
+            connection.setAutoCommit(false);
+
+            try(Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY))
+            {
+                statement.setFetchSize(fetchSize);
+
+                try(ResultSet result = statement.executeQuery(query))
+                {
+                    while(result.next())
+                    {
+                        String key = result.getString(1);
+
+                        if(key != null)
+                            dictionary.add(key, result.getString(2));
+                    }
+                }
+            }
+            finally
+            {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+
+        dictionary.keyIndex = dictionary.createIndex(dictionary.keys);
+        dictionary.valueIndex = dictionary.createIndex(dictionary.values);
+        dictionary.trim();
+        dictionary.loadTime = System.nanoTime() - start;
+
+        return dictionary;
+    }
+
+
+    /**
+     * Returns the value of the key, or null if the key is not present.
+     */
+    public String getValue(String key)
+    {
+        int entry = find(keyIndex, keys, key.getBytes(UTF_8));
+        return entry < 0 ? null : getString(values[entry]);
+    }
+
+
+    /**
+     * Returns the first key having the value, or null if there is no such key.
+     */
+    public String getKey(String value)
+    {
+        int entry = find(valueIndex, values, value.getBytes(UTF_8));
+        return entry < 0 ? null : getString(keys[entry]);
+    }
+
+
+    public boolean containsKey(String key)
+    {
+        return find(keyIndex, keys, key.getBytes(UTF_8)) >= 0;
+    }
+
+
+    public int size()
+    {
+        return count;
+    }
+
+
+    /**
+     * Returns the approximate number of bytes occupied by the dictionary.
+     */
+    public long getMemoryFootprint()
+    {
+        long size = 8l * (keys.length + values.length) + 4l * (keyIndex.length + valueIndex.length);
+
+        for(int i = 0; i < pageCount; i++)
+            size += pages[i].length;
+
+        return size;
+    }
+
+
+    /**
+     * Returns the time of loading the dictionary in nanoseconds.
+     */
+    public long getLoadTime()
+    {
+        return loadTime;
+    }
+
+
+    private void trim()
+    {
+        keys = Arrays.copyOf(keys, count);
+        values = Arrays.copyOf(values, count);
+        pages = Arrays.copyOf(pages, pageCount);
+
+        if(pageCount > 0 && pageUsed < pageSize)
+            pages[pageCount - 1] = Arrays.copyOf(pages[pageCount - 1], pageUsed);
+    }
+
+
+    private void add(String key, String value)
+    {
+        if(count == keys.length)
+        {
+            keys = Arrays.copyOf(keys, 2 * count);
+            values = Arrays.copyOf(values, 2 * count);
+        }
+
+        keys[count] = store(key.getBytes(UTF_8));
+        values[count] = value == null ? -1 : store(value.getBytes(UTF_8));
+        count++;
+    }
+
+
+    /*
+     * Stores the length prefixed string and returns its reference, which consists of the page number and the offset.
+     */
+    private long store(byte[] data)
+    {
+        int length = data.length + 4;
+
+        if(pageUsed + length > pageSize || pageCount == 0)
+        {
+            if(pageCount == pages.length)
+                pages = Arrays.copyOf(pages, 2 * pageCount);
+
+            pages[pageCount++] = new byte[Math.max(pageSize, length)];
+            pageUsed = 0;
+        }
+
+        byte[] page = pages[pageCount - 1];
+        int offset = pageUsed;
+
+        page[offset] = (byte) (data.length >>> 24);
+        page[offset + 1] = (byte) (data.length >>> 16);
+        page[offset + 2] = (byte) (data.length >>> 8);
+        page[offset + 3] = (byte) data.length;
+        System.arraycopy(data, 0, page, offset + 4, data.length);
+
+        pageUsed += length;
+
+        // an oversized page is never used for further strings
+        if(page.length > pageSize)
+            pageUsed = pageSize;
+
+        return (long) (pageCount - 1) << 32 | offset;
+    }
+
+
+    private static int getLength(byte[] page, int offset)
+    {
+        return (page[offset] & 0xff) << 24 | (page[offset + 1] & 0xff) << 16 | (page[offset + 2] & 0xff) << 8
+                | page[offset + 3] & 0xff;
+    }
+
+
+    private String getString(long reference)
+    {
+        if(reference < 0)
+            return null;
+
+        byte[] page = pages[(int) (reference >>> 32)];
+        int offset = (int) reference;
+
+        return new String(page, offset + 4, getLength(page, offset), UTF_8);
+    }
+
+
+    private int hash(long reference)
+    {
+        byte[] page = pages[(int) (reference >>> 32)];
+        int offset = (int) reference;
+
+        return hash(page, offset + 4, getLength(page, offset));
+    }
+
+
+    private static int hash(byte[] data, int offset, int length)
+    {
+        int hash = 0x811c9dc5;
+
+        for(int i = offset; i < offset + length; i++)
+            hash = (hash ^ data[i]) * 0x01000193;
+
+        return hash ^ hash >>> 16;
+    }
+
+
+    private boolean equals(long reference, byte[] data)
+    {
+        byte[] page = pages[(int) (reference >>> 32)];
+        int offset = (int) reference;
+
+        return getLength(page, offset) == data.length
+                && Arrays.equals(page, offset + 4, offset + 4 + data.length, data, 0, data.length);
+    }
+
+
+    /*
+     * Creates the index of the entry numbers (increased by one). Only the first entry of equal strings is indexed.
+     */
+    private int[] createIndex(long[] references)
+    {
+        int capacity = Integer.highestOneBit(Math.max(2, count) * 2 - 1) * 2;
+        int[] index = new int[capacity];
+        int mask = capacity - 1;
+
+        for(int entry = 0; entry < count; entry++)
+        {
+            long reference = references[entry];
+
+            if(reference < 0)
+                continue;
+
+            int slot = hash(reference) & mask;
+
+            while(index[slot] != 0 && !equals(references[index[slot] - 1], reference))
+                slot = (slot + 1) & mask;
+
+            if(index[slot] == 0)
+                index[slot] = entry + 1;
+        }
+
+        return index;
+    }
+
+
+    private boolean equals(long reference, long other)
+    {
+        byte[] page = pages[(int) (reference >>> 32)];
+        int offset = (int) reference;
+        byte[] otherPage = pages[(int) (other >>> 32)];
+        int otherOffset = (int) other;
+        int length = getLength(page, offset);
+
+        return length == getLength(otherPage, otherOffset) && Arrays.equals(page, offset + 4, offset + 4 + length,
+                otherPage, otherOffset + 4, otherOffset + 4 + length);
+    }
+
+
+    private int find(int[] index, long[] references, byte[] data)
+    {
+        int mask = index.length - 1;
+        int slot = hash(data, 0, data.length) & mask;
+
+        while(index[slot] != 0)
+        {
+            int entry = index[slot] - 1;
+
+            if(equals(references[entry], data))
+                return entry;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+}
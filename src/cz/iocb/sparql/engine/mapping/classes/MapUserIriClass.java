@@ -3,9 +3,14 @@ package cz.iocb.sparql.engine.mapping.classes;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.sql.DataSource;
 import cz.iocb.sparql.engine.database.Column;
 import cz.iocb.sparql.engine.database.ConstantColumn;
 import cz.iocb.sparql.engine.database.ExpressionColumn;
@@ -22,6 +27,7 @@ import cz.iocb.sparql.engine.request.Request;
 public class MapUserIriClass extends SimpleUserIriClass
 {
     private final String sqlQuery;
+    private final String batchQuery;
 
     private final Table table;
     private final TableColumn from;
@@ -33,6 +39,8 @@ public class MapUserIriClass extends SimpleUserIriClass
     private final String suffix;
     private final int length;
 
+    private volatile MapDictionary dictionary;
+
 
     public MapUserIriClass(String name, String sqlType, Table table, TableColumn from, TableColumn to, String prefix,
             int length, String pattern, String suffix)
@@ -62,6 +70,8 @@ public class MapUserIriClass extends SimpleUserIriClass
             code = String.format("left(right(?, -%d), -%d)::varchar", prefix.length(), suffix.length());
 
         this.sqlQuery = String.format("(SELECT %s::varchar FROM %s WHERE %s = %s)", from, table, to, code);
+        this.batchQuery = String.format("SELECT \"@iri\", %s::varchar FROM unnest(?::varchar[]) AS \"@iris\"(\"@iri\") "
+                + "JOIN %s ON %s = %s", from, table, to, code.replace("?", "\"@iri\""));
 
 
         StringBuilder builder = new StringBuilder();
@@ -125,6 +135,11 @@ public class MapUserIriClass extends SimpleUserIriClass
         IRI iri = (IRI) node;
         assert match(iri);
 
+        MapDictionary dictionary = this.dictionary;
+
+        if(dictionary != null)
+            return List.of(new ConstantColumn(dictionary.getValue(getKey(iri.getValue())), sqlTypes.get(0)));
+
         IriCache cache = Request.currentRequest().getIriCache();
 
         List<Column> hit = cache.getFromCache(iri, this);
@@ -132,7 +147,7 @@ public class MapUserIriClass extends SimpleUserIriClass
         if(hit != null)
             return hit;
 
-        try(PreparedStatement statement = Request.currentRequest().getStatement(sqlQuery))
+        try(PreparedStatement statement = Request.currentRequest().getLookupStatement(sqlQuery))
         {
             statement.setString(1, iri.getValue());
 
@@ -172,6 +187,11 @@ public class MapUserIriClass extends SimpleUserIriClass
         if(!matcher.matches())
             return false;
 
+        MapDictionary dictionary = this.dictionary;
+
+        if(dictionary != null)
+            return dictionary.containsKey(getKey(iri.getValue()));
+
         IriCache cache = Request.currentRequest().getIriCache();
 
         List<Column> hit = cache.getFromCache(iri, this);
@@ -181,7 +201,7 @@ public class MapUserIriClass extends SimpleUserIriClass
         else if(hit != null)
             return true;
 
-        try(PreparedStatement statement = Request.currentRequest().getStatement(sqlQuery))
+        try(PreparedStatement statement = Request.currentRequest().getLookupStatement(sqlQuery))
         {
             statement.setString(1, iri.getValue());
 
@@ -209,6 +229,63 @@ public class MapUserIriClass extends SimpleUserIriClass
     }
 
 
+    @Override
+    public void resolve(Collection<IRI> iris)
+    {
+        if(dictionary != null)
+            return;
+
+        IriCache cache = Request.currentRequest().getIriCache();
+        Set<IRI> unresolved = new LinkedHashSet<IRI>();
+
+        for(IRI iri : getUnresolved(iris))
+            if(pattern.matcher(iri.getValue()).matches())
+                unresolved.add(iri);
+
+        executeBatch(batchQuery, new ArrayList<IRI>(unresolved), (iri, result) -> {
+            if(unresolved.remove(iri))
+                cache.storeToCache(iri, this, List.of(new ConstantColumn(result.getString(2), sqlTypes.get(0))));
+        });
+
+        for(IRI iri : unresolved)
+            cache.storeToCache(iri, this, IriCache.mismatch);
+    }
+
+
+    /**
+     * Loads the whole mapping table into memory, so that IRIs are resolved without accessing the database. A
+     * repeated call replaces the dictionary by a freshly loaded one.
+     */
+    public void loadDictionary(DataSource pool) throws SQLException
+    {
+        String query = String.format("SELECT %s::varchar, %s::varchar FROM %s", to, from, table);
+        dictionary = MapDictionary.load(pool, query);
+    }
+
+
+    public MapDictionary getDictionary()
+    {
+        return dictionary;
+    }
+
+
+    /*
+     * Extracts the key of a matching IRI in the same way as the SQL code of the lookup.
+     */
+    private String getKey(String iri)
+    {
+        int begin = prefix != null ? prefix.length() : 0;
+        int end = suffix != null ? iri.length() - suffix.length() : iri.length();
+
+        // the length is given in characters, which correspond to code points
+        if(length > 0)
+            end = iri.codePointCount(begin, iri.length()) > length ? iri.offsetByCodePoints(begin, length) :
+                    iri.length();
+
+        return iri.substring(begin, end);
+    }
+
+
     @Override
     public int getCheckCost()
     {
@@ -216,6 +293,20 @@ public class MapUserIriClass extends SimpleUserIriClass
     }
 
 
+    @Override
+    public String getCommonPrefix()
+    {
+        return prefix != null ? prefix : "";
+    }
+
+
+    @Override
+    public String getCommonSuffix()
+    {
+        return suffix != null ? suffix : "";
+    }
+
+
     @Override
     protected Column generateFunction(Column parameter)
     {
@@ -18,6 +18,7 @@ public class StringUserIriClass extends SimpleUserIriClass
     private final String prefix;
     private final String suffix;
     private final int length;
+    private final boolean custom;
 
 
     public StringUserIriClass(String name, String prefix, int length, String pattern, String suffix)
@@ -27,6 +28,7 @@ public class StringUserIriClass extends SimpleUserIriClass
         this.length = length;
         this.prefix = prefix;
         this.suffix = suffix;
+        this.custom = pattern != null;
 
 
         StringBuilder builder = new StringBuilder();
@@ -102,11 +104,38 @@ public class StringUserIriClass extends SimpleUserIriClass
     @Override
     public boolean match(IRI iri)
     {
+        if(!custom)
+            return scan(iri.getValue());
+
         Matcher matcher = pattern.matcher(iri.getValue());
         return matcher.matches();
     }
 
 
+    /*
+     * Matches the IRI in the same way as the generated regular expression does, so that the identifier cannot contain
+     * line terminators and its length is given in code points.
+     */
+    private boolean scan(String value)
+    {
+        int start = prefix != null ? prefix.length() : 0;
+        int end = value.length() - (suffix != null ? suffix.length() : 0);
+
+        if(end < start || prefix != null && !value.startsWith(prefix) || suffix != null && !value.endsWith(suffix))
+            return false;
+
+        for(int i = start; i < end; i++)
+        {
+            char c = value.charAt(i);
+
+            if(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+                return false;
+        }
+
+        return length <= 0 || value.codePointCount(start, end) == length;
+    }
+
+
     @Override
     public int getCheckCost()
     {
@@ -114,6 +143,20 @@ public class StringUserIriClass extends SimpleUserIriClass
     }
 
 
+    @Override
+    public String getCommonPrefix()
+    {
+        return prefix != null ? prefix : "";
+    }
+
+
+    @Override
+    public String getCommonSuffix()
+    {
+        return suffix != null ? suffix : "";
+    }
+
+
     @Override
     protected Column generateFunction(Column parameter)
     {
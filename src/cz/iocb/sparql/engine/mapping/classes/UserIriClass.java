@@ -1,12 +1,33 @@
 package cz.iocb.sparql.engine.mapping.classes;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import cz.iocb.sparql.engine.database.SQLRuntimeException;
 import cz.iocb.sparql.engine.parser.model.IRI;
+import cz.iocb.sparql.engine.request.IriCache;
+import cz.iocb.sparql.engine.request.Request;
 
 
 
 public abstract class UserIriClass extends IriClass
 {
+    private static final int batchSize = 10000;
+
+
+    @FunctionalInterface
+    protected static interface BatchHandler
+    {
+        void accept(IRI iri, ResultSet result) throws SQLException;
+    }
+
+
     protected UserIriClass(String name, List<String> sqlTypes, List<ResultTag> resultTags)
     {
         super(name, sqlTypes, resultTags);
@@ -17,4 +38,99 @@ public abstract class UserIriClass extends IriClass
 
 
     public abstract int getCheckCost();
+
+
+    /**
+     * Returns the prefix all IRIs of the class start with, so that the class is not matched against other IRIs. The
+     * empty string means that the IRIs have no common prefix.
+     */
+    public String getCommonPrefix()
+    {
+        return "";
+    }
+
+
+    /**
+     * Returns the suffix all IRIs of the class end with. The empty string means that the IRIs have no common suffix.
+     */
+    public String getCommonSuffix()
+    {
+        return "";
+    }
+
+
+    /**
+     * Resolves the given IRIs at once and stores the results to the IRI cache of the current request, so that the
+     * subsequent calls of match() and toColumns() for these IRIs do not access the database.
+     */
+    public void resolve(Collection<IRI> iris)
+    {
+    }
+
+
+    /**
+     * Resolves the given IRIs by the given IRI classes. Each IRI is resolved only by the classes preceding the first
+     * class it matches, as it is done when the IRIs are matched one by one.
+     */
+    public static void resolve(Collection<UserIriClass> classes, Collection<IRI> iris)
+    {
+        List<IRI> remaining = new ArrayList<IRI>(new LinkedHashSet<IRI>(iris));
+
+        for(UserIriClass iriClass : classes)
+        {
+            if(remaining.isEmpty())
+                break;
+
+            iriClass.resolve(remaining);
+            remaining.removeIf(iri -> iriClass.match(iri));
+        }
+    }
+
+
+    /**
+     * Returns the IRIs which are not resolved by this class in the IRI cache of the current request yet.
+     */
+    protected final List<IRI> getUnresolved(Collection<IRI> iris)
+    {
+        IriCache cache = Request.currentRequest().getIriCache();
+        List<IRI> unresolved = new ArrayList<IRI>();
+
+        for(IRI iri : iris)
+            if(cache.getFromCache(iri, this) == null)
+                unresolved.add(iri);
+
+        return unresolved;
+    }
+
+
+    /**
+     * Executes the query for the given IRIs passed as a varchar array parameter. The first column of the result has
+     * to contain the IRI the row belongs to.
+     */
+    protected static void executeBatch(String query, List<IRI> iris, BatchHandler handler)
+    {
+        for(int offset = 0; offset < iris.size(); offset += batchSize)
+        {
+            List<IRI> batch = iris.subList(offset, Math.min(offset + batchSize, iris.size()));
+            Map<String, IRI> values = new HashMap<String, IRI>();
+
+            for(IRI iri : batch)
+                values.put(iri.getValue(), iri);
+
+            try(PreparedStatement statement = Request.currentRequest().getLookupStatement(query))
+            {
+                statement.setArray(1, statement.getConnection().createArrayOf("varchar", values.keySet().toArray()));
+
+                try(ResultSet result = statement.executeQuery())
+                {
+                    while(result.next())
+                        handler.accept(values.get(result.getString(1)), result);
+                }
+            }
+            catch(SQLException e)
+            {
+                throw new SQLRuntimeException(e);
+            }
+        }
+    }
 }
@@ -1,14 +1,19 @@
 package cz.iocb.sparql.engine.parser;
 
+import java.util.ArrayList;
 import java.util.List;
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import cz.iocb.sparql.engine.error.MessageType;
 import cz.iocb.sparql.engine.error.TranslateMessage;
 import cz.iocb.sparql.engine.grammar.SparqlLexer;
@@ -21,7 +26,22 @@ import cz.iocb.sparql.engine.grammar.SparqlParser;
  */
 public class Parser
 {
+    private static final String[] warmUpQueries = {
+            "PREFIX ex: <http://example.org/> SELECT DISTINCT ?s (COUNT(*) AS ?c) FROM <http://example.org/graph> "
+                    + "WHERE { ?s a ex:Class ; ex:value ?v . OPTIONAL { ?s ex:label ?l FILTER(lang(?l) = 'en') } "
+                    + "FILTER(?v > 1 && regex(str(?s), '^http')) } GROUP BY ?s HAVING(COUNT(*) > 1) "
+                    + "ORDER BY DESC(?c) LIMIT 10 OFFSET 5",
+            "SELECT * WHERE { { ?s <http://example.org/p> ?o } UNION "
+                    + "{ ?o ^<http://example.org/q>/<http://example.org/r>* ?s } "
+                    + "MINUS { ?s <http://example.org/p> 1.5e3 } BIND(CONCAT(?a, \"b\"@en) AS ?x) "
+                    + "VALUES (?s ?o) { (<http://example.org/a> 1) (UNDEF \"x\"^^<http://example.org/t>) } }",
+            "ASK { SERVICE SILENT <http://example.org/sparql> { ?s ?p [ ?q ( 1 2 ) ] } "
+                    + "FILTER NOT EXISTS { ?s ?p true } }",
+            "CONSTRUCT { ?s <http://example.org/p> _:b } WHERE { GRAPH ?g { ?s ?p ?o } }",
+            "DESCRIBE <http://example.org/a> ?s WHERE { ?s ?p ?o FILTER(?o IN (1, 2, 3)) }" };
+
     private final List<TranslateMessage> messages;
+    private PredictionMode predictionMode;
 
 
     public Parser(List<TranslateMessage> messages)
@@ -35,43 +55,89 @@ public class Parser
      */
     public ParserRuleContext parse(String query)
     {
-        StringBuilder builder = new StringBuilder();
+        return parse(new ANTLRInputStream(unescape(query)));
+    }
+
+
+    /**
+     * Returns the prediction mode the last query was parsed with. It is LL if the faster SLL prediction failed.
+     */
+    public PredictionMode getPredictionMode()
+    {
+        return predictionMode;
+    }
+
+
+    /**
+     * Parses representative queries, so that the DFA caches shared by all parsers are populated before the first
+     * real query is parsed.
+     */
+    public static void warmUp()
+    {
+        for(String query : warmUpQueries)
+            new Parser(new ArrayList<TranslateMessage>()).parse(query);
+    }
+
+
+    /*
+     * Replaces the escape sequences of code points, i.e. a backslash followed by 'u' and four hexadecimal digits or by
+     * 'U' and eight ones. The query is returned as is if it contains no such sequence.
+     */
+    static String unescape(String query)
+    {
+        int length = query.length();
+        StringBuilder builder = null;
+        int copied = 0;
 
-        for(int i = 0; i < query.length() - 1; i++)
+        for(int i = query.indexOf('\\'); i >= 0 && i < length - 1; i = query.indexOf('\\', i + 1))
         {
-            if(query.charAt(i) == '\\' && query.charAt(i + 1) == 'u')
-            {
-                String substr = query.substring(i + 2, i + 6);
+            char type = query.charAt(i + 1);
+            int size;
 
-                if(substr.matches("^[0-9a-fA-F]{4}$"))
-                {
-                    builder.append((char) Integer.parseInt(substr, 16));
+            if(type == 'u')
+                size = 4;
+            else if(type == 'U')
+                size = 8;
+            else
+                continue;
 
-                    i += 5;
-                    continue;
-                }
-            }
-            else if(query.charAt(i) == '\\' && query.charAt(i + 1) == 'U')
-            {
-                String substr = query.substring(i + 2, i + 10);
+            long codePoint = i + 2 + size <= length ? parseHex(query, i + 2, size) : -1;
 
-                if(substr.matches("^(000[0-9a-fA-F]{5})|(0010[0-9a-fA-F]{4})$"))
-                {
-                    builder.appendCodePoint(Integer.parseInt(substr, 16));
+            if(codePoint < 0 || codePoint > Character.MAX_CODE_POINT)
+                continue;
 
-                    i += 9;
-                    continue;
-                }
-            }
+            if(builder == null)
+                builder = new StringBuilder(length);
+
+            builder.append(query, copied, i).appendCodePoint((int) codePoint);
 
-            builder.append(query.charAt(i));
+            copied = i + 2 + size;
+            i = copied - 1;
         }
 
-        builder.append(query.charAt(query.length() - 1));
-        query = builder.toString();
+        if(builder == null)
+            return query;
+
+        return builder.append(query, copied, length).toString();
+    }
+
+
+    private static long parseHex(String value, int offset, int length)
+    {
+        long result = 0;
+
+        for(int i = offset; i < offset + length; i++)
+        {
+            int digit = Character.digit(value.charAt(i), 16);
+
+            // only ASCII hexadecimal digits are allowed
+            if(digit < 0 || value.charAt(i) > 'f')
+                return -1;
 
+            result = result << 4 | digit;
+        }
 
-        return parse(new ANTLRInputStream(query));
+        return result;
     }
 
 
@@ -97,11 +163,30 @@ public class Parser
         SparqlLexer lex = new SparqlLexer(stream);
         CommonTokenStream tokens = new CommonTokenStream(lex);
 
+        // the SLL prediction is much faster and suffices for nearly all queries, it fails only on syntax errors and
+        // on the rare ambiguities resolved only by the full context
         SparqlParser parser = new SparqlParser(tokens);
         parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+
+        try
+        {
+            predictionMode = PredictionMode.SLL;
+            return parser.query();
+        }
+        catch(ParseCancellationException e)
+        {
+        }
+
+        // the tokens are buffered, so that the lexer is not run again
+        tokens.seek(0);
+        parser.reset();
         parser.addErrorListener(errorListener);
-        ParserRuleContext result = parser.query();
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
 
-        return result;
+        predictionMode = PredictionMode.LL;
+        return parser.query();
     }
 }
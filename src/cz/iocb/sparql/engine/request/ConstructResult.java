@@ -20,6 +20,13 @@ public class ConstructResult extends Result
 
     public ConstructResult(ArrayList<RdfNode[]> templates, ResultSet executeQuery, int limit, int offset, long begin,
             long timeout) throws SQLException
+    {
+        this(templates, new SelectResult(ResultType.SELECT, executeQuery, begin, timeout), limit, offset);
+    }
+
+
+    public ConstructResult(ArrayList<RdfNode[]> templates, SelectResult subresult, int limit, int offset)
+            throws SQLException
     {
         super(ResultType.CONSTRUCT);
 
@@ -30,7 +37,7 @@ public class ConstructResult extends Result
         }
 
         this.templates = templates;
-        this.subresult = new SelectResult(ResultType.SELECT, executeQuery, begin, timeout);
+        this.subresult = subresult;
         this.limit = limit;
         this.offset = offset;
         this.rowData = new RdfNode[heads.size()];
@@ -92,6 +99,13 @@ public class ConstructResult extends Result
     }
 
 
+    @Override
+    public long getFetchTime()
+    {
+        return subresult.getFetchTime();
+    }
+
+
     @Override
     public void close() throws SQLException
     {
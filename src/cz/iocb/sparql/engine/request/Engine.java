@@ -1,23 +1,93 @@
 package cz.iocb.sparql.engine.request;
 
+import java.util.List;
 import cz.iocb.sparql.engine.config.SparqlDatabaseConfiguration;
+import cz.iocb.sparql.engine.parser.Parser;
 
 
 
 public class Engine
 {
     private final SparqlDatabaseConfiguration config;
+    private final TranslationCache translationCache;
+    private final SharedIriCache iriCache;
+    private final QueryMetrics metrics = new QueryMetrics();
+    private SlowQueryLog slowQueryLog;
 
 
     public Engine(SparqlDatabaseConfiguration config)
+    {
+        this(config, 0, "");
+    }
+
+
+    /**
+     * Creates an engine reusing translations of repeated queries. The translations are cached only if the cache size
+     * is positive, the version identifies the state of the configuration the translations are valid for.
+     */
+    public Engine(SparqlDatabaseConfiguration config, int translationCacheSize, String version)
+    {
+        this(config, translationCacheSize, version, null);
+    }
+
+
+    /**
+     * Creates an engine sharing resolved IRIs among its requests by the given cache, which may be null. The cached
+     * translations do not expire.
+     */
+    public Engine(SparqlDatabaseConfiguration config, int translationCacheSize, String version,
+            SharedIriCache iriCache)
+    {
+        this(config, translationCacheSize, Long.MAX_VALUE, version, iriCache);
+    }
+
+
+    /**
+     * Creates an engine the cached translations of which expire after the given time in milliseconds. The time should
+     * not exceed the time for which unresolved IRIs are cached, since the translations depend on the resolved IRIs.
+     */
+    public Engine(SparqlDatabaseConfiguration config, int translationCacheSize, long translationCacheTtl,
+            String version, SharedIriCache iriCache)
     {
         this.config = config;
+        this.translationCache = translationCacheSize > 0 && translationCacheTtl > 0 ?
+                new TranslationCache(translationCacheSize, translationCacheTtl, config.getPrefixes(), version) : null;
+        this.iriCache = iriCache;
     }
 
 
     public Request getRequest()
     {
-        return new Request(config);
+        Request request = new Request(config, translationCache, iriCache, metrics);
+        request.setSlowQueryLog(slowQueryLog);
+        return request;
+    }
+
+
+    /**
+     * Replays the queries through the parsing and the translation, and optionally through the planning of the SQL
+     * code, before the engine serves real queries. The replayed queries are not included in the metrics. Returns the
+     * number of queries which failed.
+     */
+    public int warmUp(List<String> queries, boolean explain)
+    {
+        Parser.warmUp();
+
+        int failures = 0;
+
+        for(String query : queries)
+        {
+            try(Request request = new Request(config, translationCache, iriCache, null))
+            {
+                request.warmUp(query, explain);
+            }
+            catch(Exception e)
+            {
+                failures++;
+            }
+        }
+
+        return failures;
     }
 
 
@@ -25,4 +95,51 @@ public class Engine
     {
         return config;
     }
+
+
+    public TranslationCache getTranslationCache()
+    {
+        return translationCache;
+    }
+
+
+    public SharedIriCache getIriCache()
+    {
+        return iriCache;
+    }
+
+
+    public QueryMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+
+    public SlowQueryLog getSlowQueryLog()
+    {
+        return slowQueryLog;
+    }
+
+
+    /**
+     * Sets the log all requests of the engine are reported to, which may be null.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog)
+    {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+
+    /**
+     * Drops all cached IRI resolutions and translations. It has to be called whenever the tables used to map IRIs
+     * change, since the translations contain the resolved IRIs.
+     */
+    public void invalidateIriCache()
+    {
+        if(iriCache != null)
+            iriCache.invalidate();
+
+        if(translationCache != null)
+            translationCache.invalidate();
+    }
 }
@@ -0,0 +1,67 @@
+package cz.iocb.sparql.engine.request;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * Histogram of values with fixed bucket bounds. The recording does not take any lock, so it can be used on hot paths
+ * by many threads at once.
+ */
+public final class Histogram
+{
+    private final long[] bounds;
+    private final LongAdder[] counts;
+    private final LongAdder sum = new LongAdder();
+
+
+    /**
+     * Creates a histogram with the given ascending upper bounds of the buckets. The last bucket, which is not
+     * bounded, is added implicitly.
+     */
+    public Histogram(long... bounds)
+    {
+        this.bounds = bounds.clone();
+        this.counts = new LongAdder[bounds.length + 1];
+
+        for(int i = 0; i < counts.length; i++)
+            counts[i] = new LongAdder();
+    }
+
+
+    public void record(long value)
+    {
+        int bucket = Arrays.binarySearch(bounds, value);
+
+        counts[bucket < 0 ? -bucket - 1 : bucket].increment();
+        sum.add(value);
+    }
+
+
+    public long[] getBounds()
+    {
+        return bounds.clone();
+    }
+
+
+    /**
+     * Returns the numbers of recorded values less than or equal to the bounds, followed by the number of all values.
+     */
+    public long[] getCumulativeCounts()
+    {
+        long[] result = new long[counts.length];
+        long total = 0;
+
+        for(int i = 0; i < counts.length; i++)
+            result[i] = total += counts[i].sum();
+
+        return result;
+    }
+
+
+    public long getSum()
+    {
+        return sum.sum();
+    }
+}
@@ -17,13 +17,24 @@ public class IriCache
     private final Map<IRI, Map<ResourceClass, List<Column>>> cache;
     private final Map<ResourceClass, Map<List<Column>, IRI>> revCache;
 
+    private final SharedIriCache shared;
     private final int minorSize;
 
 
     public IriCache(int majorSize, int minorSize)
+    {
+        this(majorSize, minorSize, null);
+    }
+
+
+    /**
+     * Creates a request level cache backed by the given shared cache, which may be null.
+     */
+    public IriCache(int majorSize, int minorSize, SharedIriCache shared)
     {
         this.cache = new HashMap<IRI, Map<ResourceClass, List<Column>>>(majorSize);
         this.revCache = new HashMap<ResourceClass, Map<List<Column>, IRI>>();
+        this.shared = shared;
         this.minorSize = minorSize;
     }
 
@@ -31,11 +42,17 @@ public class IriCache
     public List<Column> getFromCache(IRI iri, ResourceClass resClass)
     {
         Map<ResourceClass, List<Column>> items = cache.get(iri);
+        List<Column> columns = items != null ? items.get(resClass) : null;
 
-        if(items == null)
-            return null;
+        if(columns != null || shared == null)
+            return columns;
+
+        columns = shared.get(iri, resClass);
 
-        return items.get(resClass);
+        if(columns != null)
+            store(iri, resClass, columns);
+
+        return columns;
     }
 
 
@@ -51,6 +68,15 @@ public class IriCache
 
 
     public void storeToCache(IRI iri, ResourceClass resClass, List<Column> columns)
+    {
+        store(iri, resClass, columns);
+
+        if(shared != null)
+            shared.put(iri, resClass, columns);
+    }
+
+
+    private void store(IRI iri, ResourceClass resClass, List<Column> columns)
     {
         Map<ResourceClass, List<Column>> items = cache.get(iri);
 
@@ -0,0 +1,130 @@
+package cz.iocb.sparql.engine.request;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/*
+ * SQL code with typed constants ('value'::type) replaced by bind parameters (?::type), so that queries of the same
+ * shape share one SQL text and their prepared statements and generic plans can be reused.
+ */
+final class ParameterizedQuery
+{
+    // the maximal number of bind parameters of a PostgreSQL statement
+    private static final int maxParameters = 32767;
+
+    private final String sql;
+    private final List<String> parameters;
+
+
+    private ParameterizedQuery(String sql, List<String> parameters)
+    {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+
+    /*
+     * Returns the parameterized form of the code, or null if the code cannot be parameterized safely or if it has too
+     * many constants.
+     */
+    static ParameterizedQuery create(String code)
+    {
+        StringBuilder builder = new StringBuilder(code.length());
+        List<String> parameters = new ArrayList<String>();
+        int length = code.length();
+        int i = 0;
+
+        while(i < length)
+        {
+            char c = code.charAt(i);
+
+            if(c == '"')
+            {
+                int end = code.indexOf('"', i + 1);
+
+                if(end < 0)
+                    return null;
+
+                builder.append(code, i, end + 1);
+                i = end + 1;
+            }
+            else if(c == '\'')
+            {
+                boolean escaped = i > 0 && (code.charAt(i - 1) == 'E' || code.charAt(i - 1) == 'e');
+                boolean prefixed = i > 0 && (Character.isLetterOrDigit(code.charAt(i - 1)) || code.charAt(i - 1) == '_');
+                StringBuilder value = new StringBuilder();
+                int end = i + 1;
+
+                while(true)
+                {
+                    if(end >= length)
+                        return null;
+
+                    char d = code.charAt(end);
+
+                    if(escaped && d == '\\')
+                    {
+                        end += 2;
+                        continue;
+                    }
+
+                    if(d == '\'' && end + 1 < length && code.charAt(end + 1) == '\'')
+                    {
+                        value.append('\'');
+                        end += 2;
+                        continue;
+                    }
+
+                    if(d == '\'')
+                        break;
+
+                    value.append(d);
+                    end++;
+                }
+
+                end++;
+
+                if(!prefixed && code.startsWith("::", end))
+                {
+                    if(parameters.size() == maxParameters)
+                        return null;
+
+                    builder.append('?');
+                    parameters.add(value.toString());
+                }
+                else
+                {
+                    builder.append(code, i, end);
+                }
+
+                i = end;
+            }
+            else if(c == '?')
+            {
+                // the placeholder character is used by an operator
+                return null;
+            }
+            else
+            {
+                builder.append(c);
+                i++;
+            }
+        }
+
+        return new ParameterizedQuery(builder.toString(), parameters);
+    }
+
+
+    String getSql()
+    {
+        return sql;
+    }
+
+
+    List<String> getParameters()
+    {
+        return parameters;
+    }
+}
@@ -0,0 +1,134 @@
+package cz.iocb.sparql.engine.request;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * Latency breakdown of the processing of queries by phases, together with the sizes of the generated SQL code and of
+ * the results, and the durations of SERVICE calls. The durations are recorded in nanoseconds.
+ */
+public final class QueryMetrics
+{
+    public static enum Phase
+    {
+        PARSE, BUILD, TRANSLATE, OPTIMIZE, GENERATE, CONNECT, EXECUTE, FETCH, SERIALIZE;
+
+        public String getName()
+        {
+            return name().toLowerCase();
+        }
+    }
+
+
+    private static final long[] latencyBounds = { 100000l, 250000l, 500000l, 1000000l, 2500000l, 5000000l, 10000000l,
+            25000000l, 50000000l, 100000000l, 250000000l, 500000000l, 1000000000l, 2500000000l, 5000000000l,
+            10000000000l, 30000000000l, 60000000000l, 300000000000l };
+
+    public static final int largeQueryLength = 64 * 1024;
+
+    private final EnumMap<Phase, Histogram> phases = new EnumMap<Phase, Histogram>(Phase.class);
+    private final Histogram rows = new Histogram(0, 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000);
+    private final Histogram sqlLength = new Histogram(1000, 2500, 5000, 10000, 25000, 50000, 100000, 1000000);
+    private final Histogram serviceCalls = new Histogram(latencyBounds);
+    private final Histogram largeParse = new Histogram(latencyBounds);
+    private final Histogram mappingCandidates = new Histogram(0, 1, 2, 5, 10, 25, 50, 100, 250, 1000, 10000);
+    private final LongAdder parseFallbacks = new LongAdder();
+
+
+    public QueryMetrics()
+    {
+        for(Phase phase : Phase.values())
+            phases.put(phase, new Histogram(latencyBounds));
+    }
+
+
+    public void record(Phase phase, long duration)
+    {
+        phases.get(phase).record(duration);
+    }
+
+
+    public void recordRows(long count)
+    {
+        rows.record(count);
+    }
+
+
+    public void recordSqlLength(long length)
+    {
+        sqlLength.record(length);
+    }
+
+
+    public void recordServiceCall(long duration)
+    {
+        serviceCalls.record(duration);
+    }
+
+
+    /**
+     * Records the parsing of a query in addition to the PARSE phase. The fallback indicates that the query had to be
+     * parsed again with the full LL prediction.
+     */
+    public void recordParse(int length, long duration, boolean fallback)
+    {
+        if(length >= largeQueryLength)
+            largeParse.record(duration);
+
+        if(fallback)
+            parseFallbacks.increment();
+    }
+
+
+    public Histogram getPhase(Phase phase)
+    {
+        return phases.get(phase);
+    }
+
+
+    public Histogram getRows()
+    {
+        return rows;
+    }
+
+
+    public Histogram getSqlLength()
+    {
+        return sqlLength;
+    }
+
+
+    public Histogram getServiceCalls()
+    {
+        return serviceCalls;
+    }
+
+
+    /**
+     * Records the number of quad mappings returned by the mapping index for a triple pattern.
+     */
+    public void recordMappingCandidates(int count)
+    {
+        mappingCandidates.record(count);
+    }
+
+
+    public Histogram getMappingCandidates()
+    {
+        return mappingCandidates;
+    }
+
+
+    public Histogram getLargeParse()
+    {
+        return largeParse;
+    }
+
+
+    public long getParseFallbacks()
+    {
+        return parseFallbacks.sum();
+    }
+}
@@ -10,7 +10,14 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
 import cz.iocb.sparql.engine.config.SparqlDatabaseConfiguration;
 import cz.iocb.sparql.engine.database.Table;
 import cz.iocb.sparql.engine.error.MessageCategory;
@@ -32,7 +39,9 @@ import cz.iocb.sparql.engine.parser.model.triple.BlankNode;
 import cz.iocb.sparql.engine.parser.model.triple.Node;
 import cz.iocb.sparql.engine.parser.model.triple.Triple;
 import cz.iocb.sparql.engine.parser.visitor.QueryVisitor;
+import cz.iocb.sparql.engine.request.QueryMetrics.Phase;
 import cz.iocb.sparql.engine.request.Result.ResultType;
+import cz.iocb.sparql.engine.request.TranslationCache.Translation;
 import cz.iocb.sparql.engine.translator.TranslateVisitor;
 import cz.iocb.sparql.engine.translator.imcode.SqlQuery;
 
@@ -41,24 +50,70 @@ import cz.iocb.sparql.engine.translator.imcode.SqlQuery;
 public class Request implements AutoCloseable
 {
     private static ThreadLocal<Request> requests = new ThreadLocal<Request>();
+    private static final ScheduledThreadPoolExecutor watchdog = createWatchdog();
+    private static final ExecutorService canceler = createCanceler();
 
     private final SparqlDatabaseConfiguration config;
 
-    private final IriCache iriCache = new IriCache(1000, 10);
+    private final TranslationCache translationCache;
+    private final IriCache iriCache;
+    private final QueryMetrics metrics;
+    private final long[] phases = new long[Phase.values().length];
+    private SlowQueryLog slowQueryLog;
 
     private Connection connection;
+    private Connection lookupConnection;
+    private DataSource lookupPool;
     private Statement statement;
     private List<Table> tables = new ArrayList<Table>();
 
     private long begin;
     private long timeout;
     private int fetchSize;
-    private boolean canceled;
+    private volatile boolean canceled;
+    private volatile boolean expired;
+    private ScheduledFuture<?> deadline;
+    private Runnable cancelAction;
+    private Thread waitingThread;
+    private boolean orderedBySubject;
+    private boolean groupedBySubject;
+    private boolean volatileQuery;
+    private boolean temporaryTables;
+    private int pipelineBatchSize;
+    private int pipelineBatchCount;
+    private boolean parameterized;
+
+    private String query;
+    private List<DataSet> dataSets;
+    private String code;
+    private long rows;
 
 
     public Request(SparqlDatabaseConfiguration config)
+    {
+        this(config, null);
+    }
+
+
+    public Request(SparqlDatabaseConfiguration config, TranslationCache translationCache)
+    {
+        this(config, translationCache, null);
+    }
+
+
+    public Request(SparqlDatabaseConfiguration config, TranslationCache translationCache, SharedIriCache iriCache)
+    {
+        this(config, translationCache, iriCache, null);
+    }
+
+
+    public Request(SparqlDatabaseConfiguration config, TranslationCache translationCache, SharedIriCache iriCache,
+            QueryMetrics metrics)
     {
         this.config = config;
+        this.translationCache = translationCache;
+        this.iriCache = new IriCache(1000, 10, iriCache);
+        this.metrics = metrics;
     }
 
 
@@ -121,18 +176,125 @@ public class Request implements AutoCloseable
         Request previous = requests.get();
         requests.set(this);
 
-        getConnection(); // time is measured after a connection is established
+        String key = null;
+        Translation translation = null;
+
+        if(translationCache != null)
+        {
+            key = translationCache.createKey(query, dataSets, offset, limit, orderedBySubject);
+            translation = translationCache.get(key);
+        }
+
+        this.timeout = timeout;
+        this.begin = System.nanoTime();
+
+        // the whole processing of the request is limited by the deadline
+        if(timeout > 0)
+            deadline = watchdog.schedule(this::expire, timeout, TimeUnit.NANOSECONDS);
+
+        try
+        {
+            if(translation == null)
+                translation = translate(query, dataSets, offset, limit, key);
+
+            releaseLookupConnection();
+
+            this.query = query;
+            this.dataSets = dataSets;
+            this.code = translation.code;
+            this.groupedBySubject = translation.groupedBySubject;
+
+            ResultType type = translation.type;
+            this.fetchSize = fetchSize;
+
+            if(type == ResultType.SELECT)
+            {
+                if(limit > 0 && limit <= fetchSize)
+                    this.fetchSize = 0;
+
+                if(translation.selectLimit != null
+                        && translation.selectLimit.compareTo(BigInteger.valueOf(fetchSize)) <= 0)
+                    this.fetchSize = 0;
+
+                if(translation.aggregate)
+                    this.fetchSize = 0;
+            }
+            else if(type == ResultType.ASK)
+            {
+                this.fetchSize = 0;
+            }
+            else if(type == ResultType.DESCRIBE)
+            {
+                if(!orderedBySubject)
+                    this.fetchSize = 0;
+            }
+
+            ParameterizedQuery template = parameterized ? ParameterizedQuery.create(translation.code) : null;
+            ResultSet rs;
+            long start;
+
+            if(template != null)
+            {
+                PreparedStatement statement = getStatement(template.getSql());
+
+                for(int i = 0; i < template.getParameters().size(); i++)
+                    statement.setString(i + 1, template.getParameters().get(i));
+
+                start = System.nanoTime();
+                rs = statement.executeQuery();
+            }
+            else
+            {
+                Statement statement = getStatement();
+
+                start = System.nanoTime();
+                rs = statement.executeQuery(translation.code);
+            }
+
+            recordPhase(Phase.EXECUTE, System.nanoTime() - start);
+
+            if(type == ResultType.CONSTRUCT)
+                return new ConstructResult(translation.templates, createResult(ResultType.SELECT, rs), limit, offset);
+            else
+                return createResult(type, rs);
+        }
+        catch(Throwable e)
+        {
+            if(!(e instanceof TranslateExceptions))
+                e.printStackTrace();
+
+            if(statement != null)
+                statement.close();
+
+            throw e;
+        }
+        finally
+        {
+            requests.set(previous);
+        }
+    }
 
 
+    private Translation translate(String query, List<DataSet> dataSets, int offset, int limit, String key)
+            throws TranslateExceptions, SQLException
+    {
         List<TranslateMessage> messages = new LinkedList<TranslateMessage>();
 
+        long start = System.nanoTime();
         Parser parser = new Parser(messages);
         ParserRuleContext context = parser.parse(query);
+        long duration = System.nanoTime() - start;
+        recordPhase(Phase.PARSE, duration);
+
+        if(metrics != null)
+            metrics.recordParse(query.length(), duration, parser.getPredictionMode() == PredictionMode.LL);
 
         checkForErrors(messages);
 
+        start = System.nanoTime();
         QueryVisitor queryVisitor = new QueryVisitor(config, messages);
         Query syntaxTree = queryVisitor.visit(context);
+        recordPhase(Phase.BUILD, System.nanoTime() - start);
 
         checkForErrors(messages);
 
@@ -140,37 +302,25 @@ public class Request implements AutoCloseable
             syntaxTree.getSelect().setDataSets(dataSets);
 
 
-        this.fetchSize = fetchSize;
-        this.timeout = timeout;
-        this.begin = System.nanoTime();
-
-
         ResultType type = null;
+        BigInteger selectLimit = null;
+        boolean aggregate = false;
 
         if(syntaxTree instanceof SelectQuery)
         {
             type = ResultType.SELECT;
 
             Select select = ((SelectQuery) syntaxTree).getSelect();
-
-            if(limit > 0 && limit <= fetchSize)
-                this.fetchSize = 0;
-
-            if(select.getLimit() != null && select.getLimit().compareTo(BigInteger.valueOf(fetchSize)) <= 0)
-                this.fetchSize = 0;
-
-            if(select.getGroupByConditions().isEmpty() && select.isInAggregateMode())
-                this.fetchSize = 0;
+            selectLimit = select.getLimit();
+            aggregate = select.getGroupByConditions().isEmpty() && select.isInAggregateMode();
         }
         else if(syntaxTree instanceof AskQuery)
         {
             type = ResultType.ASK;
-            this.fetchSize = 0;
         }
         else if(syntaxTree instanceof DescribeQuery)
         {
             type = ResultType.DESCRIBE;
-            this.fetchSize = 0;
         }
         else if(syntaxTree instanceof ConstructQuery)
         {
@@ -178,65 +328,91 @@ public class Request implements AutoCloseable
         }
 
 
-        try
+        TranslateVisitor translateVisitor = new TranslateVisitor(messages, true);
+        SqlQuery imcode = translateVisitor.translate(syntaxTree);
+
+        if(type != ResultType.CONSTRUCT)
         {
-            TranslateVisitor translateVisitor = new TranslateVisitor(messages, true);
-            SqlQuery imcode = translateVisitor.translate(syntaxTree);
+            imcode.setOffset(offset);
 
-            if(type != ResultType.CONSTRUCT)
-            {
-                imcode.setOffset(offset);
+            if(limit >= 0)
+                imcode.setLimit(limit);
+        }
 
-                if(limit >= 0)
-                    imcode.setLimit(limit);
-            }
+        // the triples of a subject can be kept together only if each row of the result produces a single subject
+        boolean groupedBySubject = orderedBySubject && (type == ResultType.DESCRIBE
+                || type == ResultType.CONSTRUCT && hasSingleSubject(((ConstructQuery) syntaxTree).getTemplates()));
 
-            String code = imcode.translate();
+        if(groupedBySubject && type == ResultType.DESCRIBE)
+            imcode.setOrderBy(List.of(new Variable(null, "@subject").getSqlName()));
+        else if(groupedBySubject && type == ResultType.CONSTRUCT)
+            imcode.setOrderBy(getSubjectVariables(((ConstructQuery) syntaxTree).getTemplates()));
 
-            /*
-            System.err.println("=========================================================================");
-            System.err.println(query);
-            System.err.println("-------------------------------------------------------------------------");
-            System.err.println(code);
-            System.err.println("=========================================================================");
-            */
+        start = System.nanoTime();
+        String code = imcode.translate();
+        recordPhase(Phase.GENERATE, System.nanoTime() - start);
 
-            checkForErrors(messages);
+        if(metrics != null)
+            metrics.recordSqlLength(code.length());
 
-            Statement statement = getStatement();
+        /*
+        System.err.println("=========================================================================");
+        System.err.println(query);
+        System.err.println("-------------------------------------------------------------------------");
+        System.err.println(code);
+        System.err.println("=========================================================================");
+        */
 
-            if(type == ResultType.CONSTRUCT)
-            {
-                ArrayList<RdfNode[]> templates = new ArrayList<RdfNode[]>();
-
-                for(Pattern pattern : ((ConstructQuery) syntaxTree).getTemplates())
-                {
-                    Triple triple = (Triple) pattern;
+        checkForErrors(messages);
 
-                    RdfNode[] template = new RdfNode[3];
-                    templates.add(template);
+        ArrayList<RdfNode[]> templates = null;
 
-                    template[0] = convertNodeToTemplate(triple.getSubject());
-                    template[1] = convertNodeToTemplate((Node) triple.getPredicate());
-                    template[2] = convertNodeToTemplate(triple.getObject());
-                }
+        if(type == ResultType.CONSTRUCT)
+        {
+            templates = new ArrayList<RdfNode[]>();
 
-                return new ConstructResult(templates, statement.executeQuery(code), limit, offset, begin, timeout);
-            }
-            else
+            for(Pattern pattern : ((ConstructQuery) syntaxTree).getTemplates())
             {
-                return new SelectResult(type, statement.executeQuery(code), begin, timeout);
+                Triple triple = (Triple) pattern;
+
+                RdfNode[] template = new RdfNode[3];
+                templates.add(template);
+
+                template[0] = convertNodeToTemplate(triple.getSubject());
+                template[1] = convertNodeToTemplate((Node) triple.getPredicate());
+                template[2] = convertNodeToTemplate(triple.getObject());
             }
         }
-        catch(Throwable e)
+
+        Translation translation = new Translation(type, code, templates, selectLimit, aggregate, groupedBySubject);
+
+        volatileQuery = Boolean.TRUE.equals(new VolatileQueryVisitor().visitElement(syntaxTree));
+
+        if(key != null && !volatileQuery)
+            translationCache.put(key, translation);
+
+        return translation;
+    }
+
+
+    /**
+     * Translates the query and optionally plans the resulting SQL code by EXPLAIN without executing it, so that the
+     * code paths and caches used by the processing of real queries are warmed up.
+     */
+    public void warmUp(String query, boolean explain) throws TranslateExceptions, SQLException
+    {
+        Request previous = requests.get();
+        requests.set(this);
+
+        try
         {
-            if(!(e instanceof TranslateExceptions))
-                e.printStackTrace();
+            // the translation is not cached, since real queries are executed with other limits
+            Translation translation = translate(query, null, 0, -1, null);
 
-            if(statement != null)
-                statement.close();
+            releaseLookupConnection();
 
-            throw e;
+            if(explain)
+                getStatement().execute("EXPLAIN " + translation.code);
         }
         finally
         {
@@ -263,6 +439,44 @@ public class Request implements AutoCloseable
     }
 
 
+    private SelectResult createResult(ResultType type, ResultSet rs) throws SQLException
+    {
+        // pipelining makes sense only if the result is fetched from a cursor
+        if(pipelineBatchSize > 0 && fetchSize > 0)
+            return new SelectResult(type, rs, begin, timeout, this, pipelineBatchSize, pipelineBatchCount);
+        else
+            return new SelectResult(type, rs, begin, timeout, this, 0, 0);
+    }
+
+
+    private static List<String> getSubjectVariables(List<Pattern> templates)
+    {
+        List<String> variables = new ArrayList<String>();
+
+        for(Pattern pattern : templates)
+        {
+            Node subject = ((Triple) pattern).getSubject();
+
+            if(subject instanceof Variable && !variables.contains(((Variable) subject).getSqlName()))
+                variables.add(((Variable) subject).getSqlName());
+        }
+
+        return variables;
+    }
+
+
+    private static boolean hasSingleSubject(List<Pattern> templates)
+    {
+        Node first = templates.isEmpty() ? null : ((Triple) templates.get(0)).getSubject();
+
+        for(Pattern pattern : templates)
+            if(!((Triple) pattern).getSubject().equals(first))
+                return false;
+
+        return true;
+    }
+
+
     private void checkForErrors(List<TranslateMessage> messages) throws TranslateExceptions
     {
         List<TranslateMessage> errors = messages.stream().filter(m -> m.getCategory() == MessageCategory.ERROR)
@@ -277,6 +491,12 @@ public class Request implements AutoCloseable
     {
         canceled = true;
 
+        if(cancelAction != null)
+            cancelAction.run();
+
+        if(waitingThread != null)
+            waitingThread.interrupt();
+
         if(statement != null && !statement.isClosed())
         {
             statement.cancel();
@@ -285,9 +505,75 @@ public class Request implements AutoCloseable
     }
 
 
+    public synchronized boolean isCanceled()
+    {
+        return canceled;
+    }
+
+
+    /**
+     * Throws an exception if the request has been canceled. The exception of a request canceled at its deadline has
+     * the SQL state of the query cancellation, the same as the one of a statement timeout.
+     */
+    public void checkCanceled() throws SQLException
+    {
+        if(expired)
+            throw new SQLException("query timeout", "57014");
+
+        if(canceled)
+            throw new SQLException("query was canceled");
+    }
+
+
+    boolean isExpired()
+    {
+        return expired;
+    }
+
+
+    /*
+     * Marks the request as expired. The cancellation itself may wait for the request or for a round trip to the
+     * database, so it is handed off to keep the watchdog from delaying the other deadlines.
+     */
+    private void expire()
+    {
+        expired = true;
+
+        canceler.execute(() -> {
+            try
+            {
+                cancel();
+            }
+            catch(SQLException e)
+            {
+            }
+        });
+    }
+
+
+    /**
+     * Sets the action interrupting a blocking operation other than a statement, e.g. an HTTP call of the SERVICE
+     * pattern, when the request is canceled. If the request is already canceled, the action is run immediately.
+     */
+    public synchronized void setCancelAction(Runnable action)
+    {
+        cancelAction = action;
+
+        if(canceled && action != null)
+            action.run();
+    }
+
+
     @Override
     public synchronized void close() throws SQLException
     {
+        if(deadline != null)
+            deadline.cancel(false);
+
+        if(slowQueryLog != null && code != null)
+            slowQueryLog.record(query, dataSets, code, System.nanoTime() - begin, phases.clone(), rows,
+                    expired ? "timeout" : canceled ? "canceled" : "finished", !temporaryTables);
+
         try
         {
             if(statement != null && !statement.isClosed())
@@ -295,78 +581,216 @@ public class Request implements AutoCloseable
         }
         finally
         {
-            if(connection != null)
+            try
+            {
+                releaseLookupConnection();
+            }
+            finally
             {
-                for(Table table : tables)
+                if(connection != null)
                 {
-                    try(Statement stm = connection.createStatement())
-                    {
-                        stm.execute("drop table " + table);
-                    }
-                    catch(SQLException e)
+                    for(Table table : tables)
                     {
-                        e.printStackTrace();
+                        try(Statement stm = connection.createStatement())
+                        {
+                            stm.execute("drop table " + table);
+                        }
+                        catch(SQLException e)
+                        {
+                            e.printStackTrace();
+                        }
                     }
-                }
 
-                connection.close();
+                    connection.close();
+                }
             }
         }
     }
 
 
-    private synchronized Connection getConnection() throws SQLException
+    /*
+     * Establishes the connection executing the query lazily, so that it is not held during the parsing and the
+     * translation. A lookup connection borrowed from the same pool is reused, since borrowing another connection while
+     * holding it could exhaust the pool.
+     */
+    private Connection getConnection() throws SQLException
     {
-        if(connection == null)
+        synchronized(this)
         {
-            connection = config.getConnectionPool().getConnection();
-            connection.setAutoCommit(false);
+            if(connection == null && lookupConnection != null && lookupPool == null)
+            {
+                connection = lookupConnection;
+                lookupConnection = null;
+                connection.setAutoCommit(false);
+            }
+
+            if(connection != null)
+                return connection;
         }
 
+        Connection connection = borrowConnection(config.getConnectionPool());
+
+        synchronized(this)
+        {
+            this.connection = connection;
+        }
+
+        connection.setAutoCommit(false);
         return connection;
     }
 
 
+    /*
+     * Borrows a connection from the pool without holding the monitor of the request, so that the request can be
+     * canceled while it waits for the connection.
+     */
+    private Connection borrowConnection(DataSource pool) throws SQLException
+    {
+        synchronized(this)
+        {
+            checkCanceled();
+            waitingThread = Thread.currentThread();
+        }
+
+        long start = System.nanoTime();
+
+        try
+        {
+            return pool.getConnection();
+        }
+        catch(SQLException e)
+        {
+            checkCanceled();
+            throw e;
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                waitingThread = null;
+            }
+
+            // the interruption by the cancellation must not affect the following operations of the thread
+            if(canceled)
+                Thread.interrupted();
+
+            recordPhase(Phase.CONNECT, System.nanoTime() - start);
+        }
+    }
+
+
+    private synchronized void releaseLookupConnection() throws SQLException
+    {
+        if(lookupConnection != null)
+        {
+            Connection lookupConnection = this.lookupConnection;
+            this.lookupConnection = null;
+            lookupConnection.close();
+        }
+    }
+
+
+    /*
+     * Returns the statement timeout in whole seconds rounded up. It is only a safeguard, the statements are canceled
+     * precisely at the deadline by the watchdog.
+     */
     private int getStatementTimeout()
     {
         if(timeout == 0)
             return 0;
 
-        int restTime = (int) ((timeout - (System.nanoTime() - begin)) / 1000000000);
+        long restTime = timeout - (System.nanoTime() - begin);
 
-        if(restTime <= 0)
-            return 1; //FIXME: throw exception?
+        return (int) Math.max(1, (restTime + 999999999) / 1000000000);
+    }
 
-        return restTime;
+
+    private static ScheduledThreadPoolExecutor createWatchdog()
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sparql-deadline-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
     }
 
 
-    public synchronized Statement getStatement() throws SQLException
+    private static ExecutorService createCanceler()
     {
-        if(statement != null && !statement.isClosed())
-            throw new IllegalStateException();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "sparql-request-canceler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
-        if(canceled)
-            throw new SQLException("query was canceled");
 
-        Statement statement = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-        statement.setQueryTimeout(getStatementTimeout());
-        statement.setFetchSize(fetchSize);
+    public Statement getStatement() throws SQLException
+    {
+        Connection connection = getConnection();
 
-        this.statement = statement;
-        return statement;
+        synchronized(this)
+        {
+            if(statement != null && !statement.isClosed())
+                throw new IllegalStateException();
+
+            checkCanceled();
+
+            Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setQueryTimeout(getStatementTimeout());
+            statement.setFetchSize(fetchSize);
+
+            this.statement = statement;
+            return statement;
+        }
     }
 
 
     public PreparedStatement getStatement(String query) throws SQLException
+    {
+        return prepareStatement(getConnection(), query);
+    }
+
+
+    /**
+     * Prepares a statement looking up data needed by the translation, e.g. to resolve IRIs. Unless the connection
+     * executing the query is already established, the statement uses a connection borrowed from the lookup pool,
+     * which is returned as soon as the translation is finished.
+     */
+    public PreparedStatement getLookupStatement(String query) throws SQLException
+    {
+        Connection connection;
+
+        synchronized(this)
+        {
+            connection = this.connection != null ? this.connection : lookupConnection;
+        }
+
+        if(connection == null)
+        {
+            connection = borrowConnection(lookupPool != null ? lookupPool : config.getConnectionPool());
+
+            synchronized(this)
+            {
+                lookupConnection = connection;
+            }
+        }
+
+        return prepareStatement(connection, query);
+    }
+
+
+    private synchronized PreparedStatement prepareStatement(Connection connection, String query) throws SQLException
     {
         if(statement != null && !statement.isClosed())
             throw new IllegalStateException();
 
-        if(canceled)
-            throw new SQLException("query was canceled");
+        checkCanceled();
 
-        PreparedStatement statement = getConnection().prepareStatement(query);
+        PreparedStatement statement = connection.prepareStatement(query);
         statement.setQueryTimeout(getStatementTimeout());
         statement.setFetchSize(fetchSize);
 
@@ -375,6 +799,87 @@ public class Request implements AutoCloseable
     }
 
 
+    /**
+     * Notes that the query refers to temporary tables created on the connection of the request, so that it cannot be
+     * explained on another connection.
+     */
+    public void setTemporaryTables()
+    {
+        temporaryTables = true;
+    }
+
+
+    /**
+     * Sets the pool of connections used by lookups during the translation. If no pool is set, the lookups borrow a
+     * connection from the connection pool of the configuration.
+     */
+    public void setLookupPool(DataSource lookupPool)
+    {
+        this.lookupPool = lookupPool;
+    }
+
+
+    /**
+     * Sets the log the request is reported to when it is closed, if it is slow or sampled.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog)
+    {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+
+    /**
+     * Requests constants of the generated SQL code to be passed as bind parameters of a prepared statement, so that
+     * the database can reuse the plans of queries differing only in constants.
+     */
+    public void setParameterized(boolean parameterized)
+    {
+        this.parameterized = parameterized;
+    }
+
+
+    /**
+     * Returns whether the executed query uses the SERVICE pattern or functions returning a different value on each
+     * evaluation, so that its result must not be reused.
+     */
+    public boolean isVolatile()
+    {
+        return volatileQuery;
+    }
+
+
+    /**
+     * Returns whether the triples of the executed DESCRIBE or CONSTRUCT query are returned grouped by their subjects,
+     * so that they can be written as a stream.
+     */
+    public boolean isGroupedBySubject()
+    {
+        return groupedBySubject;
+    }
+
+
+    /**
+     * Requests DESCRIBE and CONSTRUCT results to be ordered by their subjects, so that triples of the same subject
+     * are returned consecutively and can be written out without materializing the whole graph. CONSTRUCT results
+     * are ordered only if their templates have a single subject.
+     */
+    public void setOrderedBySubject(boolean orderedBySubject)
+    {
+        this.orderedBySubject = orderedBySubject;
+    }
+
+
+    /**
+     * Enables fetching of results by a separate thread into a ring of the given number of row batches of the given
+     * size. The batch size of zero disables the pipelined fetching.
+     */
+    public void setPipeline(int batchSize, int batchCount)
+    {
+        this.pipelineBatchSize = batchSize;
+        this.pipelineBatchCount = batchCount;
+    }
+
+
     public SparqlDatabaseConfiguration getConfiguration()
     {
         return config;
@@ -387,6 +892,45 @@ public class Request implements AutoCloseable
     }
 
 
+    /**
+     * Records the duration of a phase of the processing of the request, if the request is measured.
+     */
+    public void recordPhase(Phase phase, long duration)
+    {
+        phases[phase.ordinal()] += duration;
+
+        if(metrics != null)
+            metrics.record(phase, duration);
+    }
+
+
+    public void recordServiceCall(long duration)
+    {
+        if(metrics != null)
+            metrics.recordServiceCall(duration);
+    }
+
+
+    public void recordMappingCandidates(int count)
+    {
+        if(metrics != null)
+            metrics.recordMappingCandidates(count);
+    }
+
+
+    void recordResult(long rows, long fetchTime)
+    {
+        this.rows += rows;
+        phases[Phase.FETCH.ordinal()] += fetchTime;
+
+        if(metrics != null)
+        {
+            metrics.recordRows(rows);
+            metrics.record(Phase.FETCH, fetchTime);
+        }
+    }
+
+
     private static RdfNode convertNodeToTemplate(Node node)
     {
         if(node instanceof IRI)
@@ -1,9 +1,12 @@
 package cz.iocb.sparql.engine.request;
 
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
+import cz.iocb.sparql.engine.mapping.classes.ResultTag;
 
 
 
@@ -74,6 +77,93 @@ public abstract class Result implements AutoCloseable
     }
 
 
+    /**
+     * Returns the set of tags the values of the variable at the given index can have, or {@code null} if it is not
+     * known in advance.
+     */
+    public Set<ResultTag> getTags(int idx)
+    {
+        return null;
+    }
+
+
+    /**
+     * Returns the tag describing the kind of the value at the given index of the current row, or {@code NULL} if the
+     * value is unbound. Literals without a datatype and literals of user datatypes are tagged as {@code LITERAL}.
+     */
+    public ResultTag getTag(int idx)
+    {
+        RdfNode node = get(idx);
+
+        if(node == null)
+            return ResultTag.NULL;
+        else if(node instanceof IriNode)
+            return ResultTag.IRI;
+        else if(node instanceof BNode)
+            return ResultTag.BLANKNODESTR;
+        else if(node instanceof LanguageTaggedLiteral)
+            return ResultTag.LANGSTRING;
+        else
+            return ResultTag.LITERAL;
+    }
+
+
+    /**
+     * Returns the lexical form of the value at the given index of the current row (the IRI of an IRI node, the label
+     * of a blank node), or {@code null} if the value is unbound.
+     */
+    public String getString(int idx)
+    {
+        RdfNode node = get(idx);
+        return node == null ? null : node.getValue();
+    }
+
+
+    public long getLong(int idx)
+    {
+        return Long.parseLong(getString(idx));
+    }
+
+
+    public double getDouble(int idx)
+    {
+        return Double.parseDouble(getString(idx));
+    }
+
+
+    public BigDecimal getDecimal(int idx)
+    {
+        return new BigDecimal(getString(idx));
+    }
+
+
+    public String getLanguage(int idx)
+    {
+        RdfNode node = get(idx);
+        return node instanceof LanguageTaggedLiteral ? ((LanguageTaggedLiteral) node).getLanguage() : null;
+    }
+
+
+    /**
+     * Returns the datatype IRI of the literal at the given index of the current row, or {@code null} if the value is
+     * not a typed literal.
+     */
+    public String getDatatype(int idx)
+    {
+        RdfNode node = get(idx);
+        return node instanceof TypedLiteral ? ((TypedLiteral) node).getDatatypeIri() : null;
+    }
+
+
+    /**
+     * Returns the time spent by fetching the rows from the database in nanoseconds.
+     */
+    public long getFetchTime()
+    {
+        return 0;
+    }
+
+
     @Override
     public abstract void close() throws SQLException;
 }
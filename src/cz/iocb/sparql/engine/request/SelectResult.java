@@ -18,12 +18,19 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
+import java.sql.Statement;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import cz.iocb.sparql.engine.mapping.classes.ResultTag;
 
 
@@ -38,14 +45,27 @@ public class SelectResult extends Result
     private static final char[] encodeTable = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
             'e', 'f' };
 
-    private final HashMap<String, Integer> columnNames = new HashMap<String, Integer>();
     private final ResultSet rs;
-    private final ResultSetMetaData metadata;
+    private final Statement statement;
+    private final ColumnDecoder[] decoders;
+    private final List<Set<ResultTag>> variableTags;
+
+    private RowBatch batch;
+    private int position;
+    private int base;
+
+    private final Request request;
+    private final BlockingQueue<RowBatch> freeBatches;
+    private final BlockingQueue<RowBatch> filledBatches;
+    private final Thread fetcher;
+    private volatile boolean closed;
 
     private final long begin;
     private final long timeout;
     private final int checkSize;
     private int count = 0;
+    private long rows = 0;
+    private long fetchTime = 0;
 
 
     static
@@ -59,19 +79,189 @@ public class SelectResult extends Result
     }
 
 
+    /*
+     * Raw values of a batch of decoded rows, stored row by row.
+     */
+    private static final class RowBatch
+    {
+        private final ResultTag[] tags;
+        private final long[] longs;
+        private final double[] doubles;
+        private final Object[] objects;
+        private final String[] extras;
+        private int size;
+        private boolean last;
+        private Exception error;
+
+
+        RowBatch(int rows, int width)
+        {
+            tags = new ResultTag[rows * width];
+            longs = new long[rows * width];
+            doubles = new double[rows * width];
+            objects = new Object[rows * width];
+            extras = new String[rows * width];
+        }
+
+
+        void clear(int base, int width)
+        {
+            for(int i = base; i < base + width; i++)
+            {
+                tags[i] = ResultTag.NULL;
+                objects[i] = null;
+                extras[i] = null;
+            }
+        }
+
+
+        void setLong(int idx, ResultTag tag, long value)
+        {
+            tags[idx] = tag;
+            longs[idx] = value;
+        }
+
+
+        void setDouble(int idx, ResultTag tag, double value)
+        {
+            tags[idx] = tag;
+            doubles[idx] = value;
+        }
+
+
+        void setObject(int idx, ResultTag tag, Object value, String extra)
+        {
+            tags[idx] = tag;
+            objects[idx] = value;
+            extras[idx] = extra;
+        }
+    }
+
+
+    /*
+     * Decoding plan of one result column, compiled from the column name (var#tag) once per result.
+     */
+    private static final class ColumnDecoder
+    {
+        private final int column;
+        private final int index;
+        private final ResultTag tag;
+        private final int companion;
+
+
+        ColumnDecoder(int column, int index, ResultTag tag, int companion)
+        {
+            this.column = column;
+            this.index = index;
+            this.tag = tag;
+            this.companion = companion;
+        }
+
+
+        void decode(ResultSet rs, RowBatch row, int base) throws SQLException
+        {
+            switch(tag)
+            {
+                case BLANKNODEINT:
+                case SHORT:
+                case INT:
+                case LONG:
+                case DAYTIMEDURATION:
+                {
+                    long value = rs.getLong(column);
+
+                    if(!rs.wasNull())
+                        row.setLong(base + index, tag, value);
+
+                    break;
+                }
+
+                case BOOLEAN:
+                {
+                    boolean value = rs.getBoolean(column);
+
+                    if(!rs.wasNull())
+                        row.setLong(base + index, tag, value ? 1 : 0);
+
+                    break;
+                }
+
+                case FLOAT:
+                case DOUBLE:
+                {
+                    double value = rs.getDouble(column);
+
+                    if(!rs.wasNull())
+                        row.setDouble(base + index, tag, value);
+
+                    break;
+                }
+
+                case INTEGER:
+                case DECIMAL:
+                {
+                    BigDecimal value = rs.getBigDecimal(column);
+
+                    if(value != null)
+                        row.setObject(base + index, tag, value, null);
+
+                    break;
+                }
+
+                case LANGSTRING:
+                case LITERAL:
+                {
+                    String value = rs.getString(column);
+
+                    if(value != null)
+                        row.setObject(base + index, tag, value, rs.getString(companion));
+
+                    break;
+                }
+
+                default:
+                {
+                    String value = rs.getString(column);
+
+                    if(value != null)
+                        row.setObject(base + index, tag, value, null);
+
+                    break;
+                }
+            }
+        }
+    }
+
+
     public SelectResult(ResultType type, ResultSet rs, long begin, long timeout) throws SQLException
+    {
+        this(type, rs, begin, timeout, null, 0, 0);
+    }
+
+
+    /**
+     * Creates a result fetched by a separate thread. The thread decodes rows into a bounded ring of batches of the
+     * given size, so that fetching from the database overlaps with the processing of the already fetched rows. If the
+     * batch size is zero, rows are fetched on demand by the calling thread.
+     */
+    public SelectResult(ResultType type, ResultSet rs, long begin, long timeout, Request request, int batchSize,
+            int batchCount) throws SQLException
     {
         super(type);
 
         this.rs = rs;
-        this.metadata = rs.getMetaData();
+        this.statement = rs.getStatement();
+        this.request = request;
 
+        ResultSetMetaData metadata = rs.getMetaData();
+        HashMap<String, Integer> columnIndexes = new HashMap<String, Integer>();
         String lastName = null;
 
-        for(int i = 0; i < metadata.getColumnCount(); i++)
+        for(int i = 1; i <= metadata.getColumnCount(); i++)
         {
-            String column = metadata.getColumnName(i + 1);
-            String name = column.replaceAll("#.*", "");
+            String column = metadata.getColumnName(i);
+            int separator = column.lastIndexOf('#');
+            String name = separator < 0 ? column : column.substring(0, separator);
 
             if(!name.equals(lastName))
             {
@@ -80,129 +270,208 @@ public class SelectResult extends Result
                 heads.add(name);
             }
 
-            columnNames.put(column, heads.size() - 1);
+            columnIndexes.put(column, i);
         }
 
+
+        ArrayList<ColumnDecoder> plan = new ArrayList<ColumnDecoder>(metadata.getColumnCount());
+        ArrayList<Set<ResultTag>> tags = new ArrayList<Set<ResultTag>>(heads.size());
+
+        for(int i = 0; i < heads.size(); i++)
+            tags.add(EnumSet.noneOf(ResultTag.class));
+
+        for(int i = 1; i <= metadata.getColumnCount(); i++)
+        {
+            String column = metadata.getColumnName(i);
+            int separator = column.lastIndexOf('#');
+            String name = separator < 0 ? column : column.substring(0, separator);
+            ResultTag tag = ResultTag.get(separator < 0 ? "" : column.substring(separator + 1));
+            int companion = 0;
+
+            switch(tag)
+            {
+                case NULL:
+                case LANG:
+                case TYPE:
+                    // ignore supplementary literal tags
+                    continue;
+
+                case LANGSTRING:
+                    companion = getCompanionColumn(columnIndexes, name, ResultTag.LANG);
+                    break;
+
+                case LITERAL:
+                    companion = getCompanionColumn(columnIndexes, name, ResultTag.TYPE);
+                    break;
+
+                default:
+                    break;
+            }
+
+            plan.add(new ColumnDecoder(i, varNames.get(name), tag, companion));
+            tags.get(varNames.get(name)).add(tag);
+        }
+
+        for(int i = 0; i < tags.size(); i++)
+            tags.set(i, Collections.unmodifiableSet(tags.get(i)));
+
+        this.decoders = plan.toArray(new ColumnDecoder[0]);
+        this.variableTags = tags;
         this.rowData = new RdfNode[heads.size()];
 
         this.begin = begin;
         this.timeout = timeout;
         this.checkSize = Math.max(100, rs.getFetchSize());
+
+        if(batchSize > 0)
+        {
+            freeBatches = new ArrayBlockingQueue<RowBatch>(batchCount);
+            filledBatches = new ArrayBlockingQueue<RowBatch>(batchCount + 1);
+
+            for(int i = 0; i < batchCount; i++)
+                freeBatches.add(new RowBatch(batchSize, heads.size()));
+
+            fetcher = Thread.ofPlatform().name("sparql-fetch").daemon().start(() -> fetch(batchSize));
+        }
+        else
+        {
+            freeBatches = null;
+            filledBatches = null;
+            fetcher = null;
+            batch = new RowBatch(1, heads.size());
+        }
+    }
+
+
+    private static int getCompanionColumn(HashMap<String, Integer> columnIndexes, String name, ResultTag tag)
+            throws SQLException
+    {
+        Integer index = columnIndexes.get(name + "#" + tag.getTag());
+
+        if(index == null)
+            throw new SQLException("missing supplementary column '" + name + "#" + tag.getTag() + "'");
+
+        return index;
     }
 
 
     @Override
     public boolean next() throws SQLException
     {
-        if(count++ % checkSize == 0 && timeout > 0 && timeout < System.nanoTime() - begin)
+        // a request watched by the deadline watchdog fails fast, otherwise the time is checked periodically
+        if(request != null)
+            request.checkCanceled();
+        else if(count++ % checkSize == 0 && timeout > 0 && timeout < System.nanoTime() - begin)
             throw new SQLException("fetch timeout");
 
-        if(!rs.next())
-            return false;
+        long start = System.nanoTime();
+        boolean next = fetchNext();
+        fetchTime += System.nanoTime() - start;
 
-        for(int i = 0; i < rowData.length; i++)
-            rowData[i] = null;
-
-        for(int i = 0; i < metadata.getColumnCount(); i++)
-        {
-            String name = metadata.getColumnName(i + 1);
-            String tagName = name.replaceAll(".*#", "");
-            String lexical = rs.getString(i + 1);
-            Object value = rs.getObject(i + 1);
-            int idx = columnNames.get(name);
+        if(next)
+            rows++;
 
-            ResultTag tag = ResultTag.get(tagName);
+        return next;
+    }
 
-            if(lexical != null)
-            {
-                switch(tag)
-                {
-                    case NULL:
-                        rowData[idx] = null;
-                        break;
 
-                    case BLANKNODEINT:
-                        rowData[idx] = new BNode(encodeIBlankNodeLabel((Long) value));
-                        break;
+    private boolean fetchNext() throws SQLException
+    {
+        for(int i = 0; i < rowData.length; i++)
+            rowData[i] = null;
 
-                    case BLANKNODESTR:
-                        rowData[idx] = new BNode(encodeSBlankNodeLabel((String) value));
-                        break;
+        if(fetcher == null)
+        {
+            if(!rs.next())
+                return false;
 
-                    case IRI:
-                        rowData[idx] = new IriNode((String) value);
-                        break;
+            batch.clear(0, rowData.length);
+            decodeRow(batch, 0);
+            return true;
+        }
 
-                    case BOOLEAN:
-                        rowData[idx] = new TypedLiteral(value.toString(), xsdBooleanType.getTypeIri());
-                        break;
+        if(batch != null && ++position < batch.size)
+        {
+            base += rowData.length;
+            return true;
+        }
 
-                    case SHORT:
-                        rowData[idx] = new TypedLiteral(value.toString(), xsdShortType.getTypeIri());
-                        break;
+        if(batch != null && batch.last)
+            return false;
 
-                    case INT:
-                        rowData[idx] = new TypedLiteral(value.toString(), xsdIntType.getTypeIri());
-                        break;
+        try
+        {
+            if(batch != null)
+                freeBatches.add(batch);
 
-                    case LONG:
-                        rowData[idx] = new TypedLiteral(value.toString(), xsdLongType.getTypeIri());
-                        break;
+            batch = filledBatches.take();
+        }
+        catch(InterruptedException e)
+        {
+            batch = null;
+            Thread.currentThread().interrupt();
+            throw new SQLException("fetch interrupted", e);
+        }
 
-                    case FLOAT:
-                        Object data = Float.isFinite((float) value) ? new BigDecimal(value.toString()) : value;
-                        rowData[idx] = new TypedLiteral(decimalFormat.format(data), xsdFloatType.getTypeIri());
-                        break;
+        if(batch.error instanceof SQLException)
+            throw (SQLException) batch.error;
+        else if(batch.error != null)
+            throw new SQLException(batch.error);
 
-                    case DOUBLE:
-                        rowData[idx] = new TypedLiteral(decimalFormat.format(value), xsdDoubleType.getTypeIri());
-                        break;
+        position = 0;
+        base = 0;
 
-                    case INTEGER:
-                        rowData[idx] = new TypedLiteral(((BigDecimal) value).stripTrailingZeros().toPlainString(),
-                                xsdIntegerType.getTypeIri());
-                        break;
+        return batch.size > 0;
+    }
 
-                    case DECIMAL:
-                        rowData[idx] = new TypedLiteral(((BigDecimal) value).stripTrailingZeros().toPlainString(),
-                                xsdDecimalType.getTypeIri());
-                        break;
 
-                    case DATETIME:
-                        rowData[idx] = new TypedLiteral(lexical, xsdDateTimeType.getTypeIri());
-                        break;
+    private void decodeRow(RowBatch batch, int base) throws SQLException
+    {
+        for(ColumnDecoder decoder : decoders)
+            decoder.decode(rs, batch, base);
+    }
 
-                    case DATE:
-                        rowData[idx] = new TypedLiteral(lexical, xsdDateType.getTypeIri());
-                        break;
 
-                    case DAYTIMEDURATION:
-                        rowData[idx] = new TypedLiteral(durationToString((Long) value),
-                                xsdDayTimeDurationType.getTypeIri());
-                        break;
+    private void fetch(int batchSize)
+    {
+        try
+        {
+            boolean last = false;
 
-                    case STRING:
-                        rowData[idx] = new TypedLiteral(value.toString(), xsdStringType.getTypeIri());
-                        break;
+            while(!last)
+            {
+                RowBatch batch = freeBatches.take();
+                batch.size = 0;
 
-                    case LANGSTRING:
-                        String lang = rs.getString(name.replaceAll("#.*", "") + "#" + ResultTag.LANG.getTag());
-                        rowData[idx] = new LanguageTaggedLiteral(value.toString(), lang);
+                while(batch.size < batchSize)
+                {
+                    if(closed || !rs.next())
+                    {
+                        last = true;
                         break;
+                    }
 
-                    case LITERAL:
-                        String type = rs.getString(name.replaceAll("#.*", "") + "#" + ResultTag.TYPE.getTag());
-                        rowData[idx] = new TypedLiteral(value.toString(), type);
-
-                    case LANG:
-                    case TYPE:
-                        // ignore supplementary literal tags
-                        break;
+                    int base = batch.size * rowData.length;
+                    batch.clear(base, rowData.length);
+                    decodeRow(batch, base);
+                    batch.size++;
                 }
+
+                batch.last = last;
+                filledBatches.put(batch);
             }
         }
-
-        return true;
+        catch(InterruptedException e)
+        {
+            // the result was closed
+        }
+        catch(Exception e)
+        {
+            RowBatch batch = new RowBatch(0, 0);
+            batch.last = true;
+            batch.error = e;
+            filledBatches.offer(batch);
+        }
     }
 
 
@@ -218,7 +487,7 @@ public class SelectResult extends Result
     {
         LinkedList<String> warnings = new LinkedList<String>();
 
-        for(SQLWarning warning = rs.getStatement().getWarnings(); warning != null; warning = warning.getNextWarning())
+        for(SQLWarning warning = statement.getWarnings(); warning != null; warning = warning.getNextWarning())
             warnings.add(warning.getMessage());
 
         return warnings;
@@ -242,6 +511,9 @@ public class SelectResult extends Result
     @Override
     public RdfNode get(int idx)
     {
+        if(rowData[idx] == null && batch.tags[base + idx] != ResultTag.NULL)
+            rowData[idx] = createNode(idx);
+
         return rowData[idx];
     }
 
@@ -254,21 +526,248 @@ public class SelectResult extends Result
         if(idx == null)
             return null;
 
-        return rowData[idx];
+        return get(idx);
     }
 
 
     @Override
     public RdfNode[] getRow()
     {
+        for(int i = 0; i < rowData.length; i++)
+            get(i);
+
         return rowData.clone();
     }
 
 
+    @Override
+    public Set<ResultTag> getTags(int idx)
+    {
+        return variableTags.get(idx);
+    }
+
+
+    @Override
+    public ResultTag getTag(int idx)
+    {
+        return batch.tags[base + idx];
+    }
+
+
+    @Override
+    public String getString(int idx)
+    {
+        switch(batch.tags[base + idx])
+        {
+            case NULL:
+                return null;
+
+            case BLANKNODEINT:
+                return encodeIBlankNodeLabel(batch.longs[base + idx]);
+
+            case BLANKNODESTR:
+                return encodeSBlankNodeLabel((String) batch.objects[base + idx]);
+
+            case BOOLEAN:
+                return batch.longs[base + idx] != 0 ? "true" : "false";
+
+            case SHORT:
+            case INT:
+            case LONG:
+                return Long.toString(batch.longs[base + idx]);
+
+            case FLOAT:
+                float value = (float) batch.doubles[base + idx];
+                return decimalFormat.format(Float.isFinite(value) ? new BigDecimal(Float.toString(value)) : value);
+
+            case DOUBLE:
+                return decimalFormat.format(batch.doubles[base + idx]);
+
+            case INTEGER:
+            case DECIMAL:
+                return ((BigDecimal) batch.objects[base + idx]).stripTrailingZeros().toPlainString();
+
+            case DAYTIMEDURATION:
+                return durationToString(batch.longs[base + idx]);
+
+            default:
+                return (String) batch.objects[base + idx];
+        }
+    }
+
+
+    @Override
+    public long getLong(int idx)
+    {
+        switch(batch.tags[base + idx])
+        {
+            case BOOLEAN:
+            case SHORT:
+            case INT:
+            case LONG:
+            case DAYTIMEDURATION:
+            case BLANKNODEINT:
+                return batch.longs[base + idx];
+
+            case FLOAT:
+            case DOUBLE:
+                return (long) batch.doubles[base + idx];
+
+            case INTEGER:
+            case DECIMAL:
+                return ((BigDecimal) batch.objects[base + idx]).longValue();
+
+            default:
+                return super.getLong(idx);
+        }
+    }
+
+
+    @Override
+    public double getDouble(int idx)
+    {
+        switch(batch.tags[base + idx])
+        {
+            case SHORT:
+            case INT:
+            case LONG:
+                return batch.longs[base + idx];
+
+            case FLOAT:
+            case DOUBLE:
+                return batch.doubles[base + idx];
+
+            case INTEGER:
+            case DECIMAL:
+                return ((BigDecimal) batch.objects[base + idx]).doubleValue();
+
+            default:
+                return super.getDouble(idx);
+        }
+    }
+
+
+    @Override
+    public BigDecimal getDecimal(int idx)
+    {
+        switch(batch.tags[base + idx])
+        {
+            case SHORT:
+            case INT:
+            case LONG:
+                return BigDecimal.valueOf(batch.longs[base + idx]);
+
+            case INTEGER:
+            case DECIMAL:
+                return (BigDecimal) batch.objects[base + idx];
+
+            default:
+                return super.getDecimal(idx);
+        }
+    }
+
+
+    @Override
+    public String getLanguage(int idx)
+    {
+        return batch.tags[base + idx] == ResultTag.LANGSTRING ? batch.extras[base + idx] : null;
+    }
+
+
+    @Override
+    public String getDatatype(int idx)
+    {
+        switch(batch.tags[base + idx])
+        {
+            case BOOLEAN:
+                return xsdBooleanType.getTypeIri().getValue();
+            case SHORT:
+                return xsdShortType.getTypeIri().getValue();
+            case INT:
+                return xsdIntType.getTypeIri().getValue();
+            case LONG:
+                return xsdLongType.getTypeIri().getValue();
+            case FLOAT:
+                return xsdFloatType.getTypeIri().getValue();
+            case DOUBLE:
+                return xsdDoubleType.getTypeIri().getValue();
+            case INTEGER:
+                return xsdIntegerType.getTypeIri().getValue();
+            case DECIMAL:
+                return xsdDecimalType.getTypeIri().getValue();
+            case DATETIME:
+                return xsdDateTimeType.getTypeIri().getValue();
+            case DATE:
+                return xsdDateType.getTypeIri().getValue();
+            case DAYTIMEDURATION:
+                return xsdDayTimeDurationType.getTypeIri().getValue();
+            case STRING:
+                return xsdStringType.getTypeIri().getValue();
+            case LITERAL:
+                return batch.extras[base + idx];
+            default:
+                return null;
+        }
+    }
+
+
+    private RdfNode createNode(int idx)
+    {
+        switch(batch.tags[base + idx])
+        {
+            case IRI:
+                return new IriNode(getString(idx));
+
+            case BLANKNODEINT:
+            case BLANKNODESTR:
+                return new BNode(getString(idx));
+
+            case LANGSTRING:
+                return new LanguageTaggedLiteral(getString(idx), batch.extras[base + idx]);
+
+            default:
+                return new TypedLiteral(getString(idx), getDatatype(idx));
+        }
+    }
+
+
+    @Override
+    public long getFetchTime()
+    {
+        return fetchTime;
+    }
+
+
     @Override
     public void close() throws SQLException
     {
-        rs.getStatement().close();
+        if(request != null)
+            request.recordResult(rows, fetchTime);
+
+        if(fetcher != null)
+        {
+            // once the last batch has been taken, the fetching thread is only about to finish
+            if(fetcher.isAlive() && (batch == null || !batch.last))
+            {
+                closed = true;
+                fetcher.interrupt();
+
+                // the fetching thread may be waiting for the database
+                if(request != null)
+                    request.cancel();
+            }
+
+            try
+            {
+                fetcher.join();
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        statement.close();
         rs.close();
     }
 
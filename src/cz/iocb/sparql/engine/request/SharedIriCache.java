@@ -0,0 +1,184 @@
+package cz.iocb.sparql.engine.request;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import cz.iocb.sparql.engine.database.Column;
+import cz.iocb.sparql.engine.mapping.classes.ResourceClass;
+import cz.iocb.sparql.engine.parser.model.IRI;
+
+
+
+/**
+ * Process-wide cache of IRI resolutions shared by all requests of an engine. Both the columns of resolved IRIs and
+ * the mismatches ({@link IriCache#mismatch}) are cached, each kind with its own time to live.
+ *
+ * The cache uses the segmented LRU policy: new entries are placed to the probationary segment and promoted to the
+ * protected segment on their second access, so a scan over many distinct IRIs evicts only probationary entries.
+ */
+public class SharedIriCache implements SharedIriCacheMBean
+{
+    private static record Key(IRI iri, ResourceClass resClass)
+    {
+    }
+
+
+    private static final class Item
+    {
+        private final List<Column> columns;
+        private final long expires;
+
+
+        Item(List<Column> columns, long expires)
+        {
+            this.columns = columns;
+            this.expires = expires;
+        }
+    }
+
+
+    private final LinkedHashMap<Key, Item> probation = new LinkedHashMap<Key, Item>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Item> protection = new LinkedHashMap<Key, Item>(16, 0.75f, true);
+    private final int capacity;
+    private final int protectedCapacity;
+    private final long ttl;
+    private final long negativeTtl;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+
+    /**
+     * Creates the cache holding at most the given number of entries. The times to live of resolved IRIs and of
+     * mismatches are given in milliseconds.
+     */
+    public SharedIriCache(int capacity, long ttl, long negativeTtl)
+    {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("invalid capacity");
+
+        this.capacity = capacity;
+        this.protectedCapacity = capacity - Math.max(1, capacity / 5);
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+    }
+
+
+    public synchronized List<Column> get(IRI iri, ResourceClass resClass)
+    {
+        Key key = new Key(iri, resClass);
+        Item item = protection.get(key);
+
+        if(item == null)
+        {
+            item = probation.remove(key);
+
+            if(item != null && item.expires >= System.currentTimeMillis())
+                promote(key, item);
+        }
+
+        if(item != null && item.expires < System.currentTimeMillis())
+        {
+            protection.remove(key);
+            item = null;
+        }
+
+        if(item == null)
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return item.columns;
+    }
+
+
+    public synchronized void put(IRI iri, ResourceClass resClass, List<Column> columns)
+    {
+        Key key = new Key(iri, resClass);
+        long expires = System.currentTimeMillis() + (columns == IriCache.mismatch ? negativeTtl : ttl);
+
+        if(protection.containsKey(key))
+        {
+            protection.put(key, new Item(columns, expires));
+            return;
+        }
+
+        probation.put(key, new Item(columns, expires));
+
+        for(Iterator<Entry<Key, Item>> it = probation.entrySet().iterator(); size() > capacity;)
+        {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+
+    private void promote(Key key, Item item)
+    {
+        protection.put(key, item);
+
+        // the least recently used protected entries get a second chance in the probationary segment
+        for(Iterator<Entry<Key, Item>> it = protection.entrySet().iterator(); protection.size() > protectedCapacity;)
+        {
+            Entry<Key, Item> eldest = it.next();
+            it.remove();
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+
+    private int size()
+    {
+        return probation.size() + protection.size();
+    }
+
+
+    /**
+     * Drops all cached resolutions. It has to be called whenever the tables used to map IRIs change.
+     */
+    @Override
+    public synchronized void invalidate()
+    {
+        probation.clear();
+        protection.clear();
+    }
+
+
+    @Override
+    public synchronized int getEntryCount()
+    {
+        return size();
+    }
+
+
+    @Override
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    @Override
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+
+    @Override
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+
+    @Override
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+}
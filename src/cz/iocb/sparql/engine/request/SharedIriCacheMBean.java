@@ -0,0 +1,26 @@
+package cz.iocb.sparql.engine.request;
+
+
+
+/**
+ * Management interface of the shared IRI resolution cache.
+ */
+public interface SharedIriCacheMBean
+{
+    void invalidate();
+
+
+    int getEntryCount();
+
+
+    int getCapacity();
+
+
+    long getHitCount();
+
+
+    long getMissCount();
+
+
+    long getEvictionCount();
+}
@@ -0,0 +1,330 @@
+package cz.iocb.sparql.engine.request;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import cz.iocb.sparql.engine.parser.model.DataSet;
+import cz.iocb.sparql.engine.request.QueryMetrics.Phase;
+
+
+
+/**
+ * Log of queries exceeding a latency threshold. The entries are kept in a bounded in-memory buffer and optionally
+ * appended to a rotated file as JSON lines. The plans of the logged queries are obtained by EXPLAIN on a separate
+ * connection. Sampled queries below the threshold can be logged as well, together with their plans obtained by
+ * EXPLAIN ANALYZE.
+ */
+public final class SlowQueryLog
+{
+    private static final int explainTimeout = 60;
+    private static final int queueSize = 100;
+
+    private final DataSource pool;
+    private final long threshold;
+    private final double explainSample;
+    private final double analyzeSample;
+    private final int capacity;
+    private final Path file;
+    private final long maxFileSize;
+    private final int fileCount;
+
+    private final ArrayDeque<String> entries = new ArrayDeque<String>();
+    private final ThreadPoolExecutor executor;
+
+
+    /**
+     * Creates the log of queries taking at least the threshold in nanoseconds. The plans are obtained for the given
+     * fraction of the slow queries, and the given fraction of the other queries is logged with analyzed plans. The
+     * file may be null, otherwise it is rotated when it exceeds the maximal size and the given number of files is
+     * kept.
+     */
+    public SlowQueryLog(DataSource pool, long threshold, double explainSample, double analyzeSample, int capacity,
+            Path file, long maxFileSize, int fileCount)
+    {
+        if(threshold < 0 || explainSample < 0 || explainSample > 1 || analyzeSample < 0 || analyzeSample > 1
+                || capacity < 0 || maxFileSize <= 0 || fileCount <= 0)
+            throw new IllegalArgumentException("invalid slow query log configuration");
+
+        this.pool = pool;
+        this.threshold = threshold;
+        this.explainSample = explainSample;
+        this.analyzeSample = analyzeSample;
+        this.capacity = capacity;
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.fileCount = fileCount;
+
+        // the entries are dropped rather than delaying the requests if the database cannot keep up with the explains
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+                    Thread thread = new Thread(r, "sparql-slow-query-log");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+
+    /**
+     * Logs the finished query, if it is slow or sampled. The durations of the phases are indexed by the ordinals of
+     * the phases. The plan of a query which is not explainable, e.g. because it refers to the temporary tables of its
+     * request, is not obtained.
+     */
+    void record(String query, List<DataSet> dataSets, String code, long duration, long[] phases, long rows,
+            String status, boolean explainable)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean explain;
+        boolean analyze;
+
+        if(duration >= threshold)
+        {
+            explain = explainable && explainSample > 0 && random.nextDouble() < explainSample;
+            analyze = false;
+        }
+        else if(explainable && analyzeSample > 0 && random.nextDouble() < analyzeSample)
+        {
+            explain = true;
+            analyze = true;
+        }
+        else
+        {
+            return;
+        }
+
+        String time = Instant.now().toString();
+
+        executor.execute(() -> {
+            String plan = explain ? explain(code, analyze) : null;
+            add(createEntry(time, query, dataSets, code, duration, phases, rows, status, plan, analyze,
+                    explainable));
+        });
+    }
+
+
+    /**
+     * Returns the logged entries as JSON objects, the most recent first.
+     */
+    public synchronized List<String> getEntries()
+    {
+        List<String> list = new ArrayList<String>(entries);
+        List<String> result = new ArrayList<String>(list.size());
+
+        for(int i = list.size() - 1; i >= 0; i--)
+            result.add(list.get(i));
+
+        return result;
+    }
+
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    private String explain(String code, boolean analyze)
+    {
+        try(Connection connection = pool.getConnection())
+        {
+            boolean autoCommit = connection.getAutoCommit();
+
+            // the analyzed query is really executed, so that its possible effects have to be rolled back
+            connection.setAutoCommit(false);
+
+            try(Statement statement = connection.createStatement())
+            {
+                statement.setQueryTimeout(explainTimeout);
+
+                try(ResultSet result = statement
+                        .executeQuery("EXPLAIN (FORMAT JSON" + (analyze ? ", ANALYZE" : "") + ") " + code))
+                {
+                    return result.next() ? result.getString(1) : null;
+                }
+            }
+            finally
+            {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        catch(SQLException e)
+        {
+            return "{\"error\": " + quote(e.getMessage()) + "}";
+        }
+    }
+
+
+    private static String createEntry(String time, String query, List<DataSet> dataSets, String code,
+            long duration, long[] phases, long rows, String status, String plan, boolean analyze,
+            boolean explainable)
+    {
+        StringBuilder out = new StringBuilder();
+
+        out.append("{\"time\": ").append(quote(time));
+        out.append(", \"status\": ").append(quote(status));
+        out.append(", \"duration\": ").append(duration / 1e9);
+        out.append(", \"rows\": ").append(rows);
+
+        out.append(", \"phases\": {");
+
+        for(Phase phase : Phase.values())
+        {
+            out.append(phase.ordinal() > 0 ? ", " : "").append(quote(phase.getName())).append(": ");
+            out.append(phases[phase.ordinal()] / 1e9);
+        }
+
+        out.append("}");
+
+        out.append(", \"query\": ").append(quote(query));
+
+        out.append(", \"default-graphs\": [");
+        appendDataSets(out, dataSets, true);
+        out.append("], \"named-graphs\": [");
+        appendDataSets(out, dataSets, false);
+        out.append("]");
+
+        out.append(", \"sql\": ").append(quote(code));
+
+        if(plan != null)
+            out.append(analyze ? ", \"analyzed-plan\": " : ", \"plan\": ").append(plan);
+        else if(!explainable)
+            out.append(", \"plan\": \"unavailable\"");
+
+        out.append("}");
+
+        return out.toString();
+    }
+
+
+    private static void appendDataSets(StringBuilder out, List<DataSet> dataSets, boolean isDefault)
+    {
+        if(dataSets == null)
+            return;
+
+        boolean first = true;
+
+        for(DataSet dataSet : dataSets)
+        {
+            if(dataSet.isDefault() != isDefault)
+                continue;
+
+            out.append(first ? "" : ", ").append(quote(dataSet.getSourceSelector().getValue()));
+            first = false;
+        }
+    }
+
+
+    private static String quote(String value)
+    {
+        if(value == null)
+            return "null";
+
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        out.append('"');
+
+        for(int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            switch(c)
+            {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+
+        out.append('"');
+        return out.toString();
+    }
+
+
+    private void add(String entry)
+    {
+        synchronized(this)
+        {
+            if(capacity > 0)
+            {
+                if(entries.size() == capacity)
+                    entries.removeFirst();
+
+                entries.addLast(entry);
+            }
+        }
+
+        if(file != null)
+            write(entry);
+    }
+
+
+    /*
+     * Appends the entry to the file. It is called only by the thread of the executor.
+     */
+    private void write(String entry)
+    {
+        try
+        {
+            if(Files.exists(file) && Files.size(file) >= maxFileSize)
+                rotate();
+
+            Files.write(file, (entry + "\n").getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+
+    private void rotate() throws IOException
+    {
+        for(int i = fileCount - 1; i > 0; i--)
+        {
+            Path source = i > 1 ? getRotatedFile(i - 1) : file;
+
+            if(Files.exists(source))
+                Files.move(source, getRotatedFile(i), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Files.deleteIfExists(file);
+    }
+
+
+    private Path getRotatedFile(int index)
+    {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+}
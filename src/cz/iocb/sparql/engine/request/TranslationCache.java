@@ -0,0 +1,238 @@
+package cz.iocb.sparql.engine.request;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import cz.iocb.sparql.engine.parser.model.DataSet;
+import cz.iocb.sparql.engine.request.Result.ResultType;
+
+
+
+/**
+ * Bounded cache of query translations shared by all requests of an engine. The least recently used translations are
+ * evicted first. Since the translations depend on IRIs resolved by the database, they expire after the given time.
+ */
+public class TranslationCache
+{
+    private static final Pattern prefixPattern = Pattern.compile("(?i)^PREFIX ?([^:\\s]*): ?<([^>]*)> ?");
+
+
+    static final class Translation
+    {
+        final ResultType type;
+        final String code;
+        final ArrayList<RdfNode[]> templates;
+        final BigInteger selectLimit;
+        final boolean aggregate;
+        final boolean groupedBySubject;
+
+
+        Translation(ResultType type, String code, ArrayList<RdfNode[]> templates, BigInteger selectLimit,
+                boolean aggregate, boolean groupedBySubject)
+        {
+            this.type = type;
+            this.code = code;
+            this.templates = templates;
+            this.selectLimit = selectLimit;
+            this.aggregate = aggregate;
+            this.groupedBySubject = groupedBySubject;
+        }
+    }
+
+
+    private static final class Entry
+    {
+        private final Translation translation;
+        private final long created;
+
+
+        private Entry(Translation translation, long created)
+        {
+            this.translation = translation;
+            this.created = created;
+        }
+    }
+
+
+    private final LinkedHashMap<String, Entry> translations;
+    private final long ttl;
+    private final Map<String, String> prefixes;
+    private final String version;
+    private long hits = 0;
+    private long misses = 0;
+
+
+    /**
+     * Creates the cache of the given capacity, the translations of which expire after the given time in milliseconds.
+     */
+    public TranslationCache(int capacity, long ttl, Map<String, String> prefixes, String version)
+    {
+        this.ttl = ttl;
+        this.prefixes = prefixes;
+        this.version = version;
+        this.translations = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+
+    String createKey(String query, List<DataSet> dataSets, int offset, int limit, boolean orderedBySubject)
+    {
+        String normalized = normalizeQuery(query);
+
+        // declarations of the predefined prefixes do not change the meaning of the query
+        for(Matcher matcher = prefixPattern.matcher(normalized); matcher.lookingAt(); matcher.reset(normalized))
+        {
+            if(!matcher.group(2).equals(prefixes.get(matcher.group(1))))
+                break;
+
+            normalized = normalized.substring(matcher.end());
+        }
+
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(version).append('\0');
+        builder.append(normalized).append('\0');
+
+        if(dataSets != null)
+            for(DataSet dataSet : dataSets)
+                builder.append(dataSet.isDefault() ? 'D' : 'N').append(dataSet.getSourceSelector().getValue())
+                        .append('\n');
+
+        builder.append('\0').append(offset);
+        builder.append('\0').append(limit);
+        builder.append('\0').append(orderedBySubject);
+
+        return builder.toString();
+    }
+
+
+    synchronized Translation get(String key)
+    {
+        Entry entry = translations.get(key);
+
+        if(entry != null && System.currentTimeMillis() - entry.created >= ttl)
+        {
+            translations.remove(key);
+            entry = null;
+        }
+
+        if(entry != null)
+            hits++;
+        else
+            misses++;
+
+        return entry != null ? entry.translation : null;
+    }
+
+
+    synchronized void put(String key, Translation translation)
+    {
+        translations.put(key, new Entry(translation, System.currentTimeMillis()));
+    }
+
+
+    public synchronized void invalidate()
+    {
+        translations.clear();
+    }
+
+
+    public synchronized int getSize()
+    {
+        return translations.size();
+    }
+
+
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+
+    /**
+     * Collapses runs of whitespace outside of string literals, IRIs and comments into single spaces.
+     */
+    public static String normalizeQuery(String query)
+    {
+        StringBuilder builder = new StringBuilder(query.length());
+        int length = query.length();
+        int i = 0;
+
+        while(i < length)
+        {
+            char c = query.charAt(i);
+
+            if(Character.isWhitespace(c))
+            {
+                while(i < length && Character.isWhitespace(query.charAt(i)))
+                    i++;
+
+                if(builder.length() > 0 && i < length)
+                    builder.append(' ');
+            }
+            else if(c == '"' || c == '\'')
+            {
+                String delimiter = c == '"' ? "\"\"\"" : "'''";
+
+                if(!query.startsWith(delimiter, i))
+                    delimiter = delimiter.substring(2);
+
+                int end = i + delimiter.length();
+
+                while(end < length && !query.startsWith(delimiter, end))
+                    end += query.charAt(end) == '\\' ? 2 : 1;
+
+                end = Math.min(length, end + delimiter.length());
+                builder.append(query, i, end);
+                i = end;
+            }
+            else if(c == '<')
+            {
+                int end = i + 1;
+
+                while(end < length && "<>\"{}|^`\\".indexOf(query.charAt(end)) < 0
+                        && !Character.isWhitespace(query.charAt(end)))
+                    end++;
+
+                end = end < length && query.charAt(end) == '>' ? end + 1 : i + 1;
+                builder.append(query, i, end);
+                i = end;
+            }
+            else if(c == '#')
+            {
+                int end = i;
+
+                while(end < length && query.charAt(end) != '\n' && query.charAt(end) != '\r')
+                    end++;
+
+                builder.append(query, i, end);
+                i = end;
+            }
+            else
+            {
+                builder.append(c);
+                i++;
+            }
+        }
+
+        return builder.toString();
+    }
+}
@@ -29,6 +29,12 @@ public class TypedLiteral extends LiteralNode
     }
 
 
+    public String getDatatypeIri()
+    {
+        return datatype;
+    }
+
+
     @Override
     public String toString()
     {
@@ -0,0 +1,53 @@
+package cz.iocb.sparql.engine.request;
+
+import java.util.List;
+import cz.iocb.sparql.engine.parser.ElementVisitor;
+import cz.iocb.sparql.engine.parser.model.expression.BuiltInCallExpression;
+import cz.iocb.sparql.engine.parser.model.pattern.Service;
+
+
+
+/*
+ * Detects queries whose translation must not be reused, i.e. queries using the SERVICE pattern or built-in functions
+ * returning a different value on each evaluation.
+ */
+final class VolatileQueryVisitor extends ElementVisitor<Boolean>
+{
+    @Override
+    protected Boolean defaultResult()
+    {
+        return false;
+    }
+
+
+    @Override
+    protected Boolean aggregateResult(List<Boolean> results)
+    {
+        return results.stream().anyMatch(r -> r == Boolean.TRUE);
+    }
+
+
+    @Override
+    public Boolean visit(Service service)
+    {
+        return true;
+    }
+
+
+    @Override
+    public Boolean visit(BuiltInCallExpression builtInCallExpression)
+    {
+        switch(builtInCallExpression.getFunctionName().toLowerCase())
+        {
+            case "rand":
+            case "now":
+            case "uuid":
+            case "struuid":
+            case "bnode":
+                return true;
+
+            default:
+                return super.visit(builtInCallExpression);
+        }
+    }
+}
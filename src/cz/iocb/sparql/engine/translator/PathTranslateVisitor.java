@@ -3,6 +3,7 @@ package cz.iocb.sparql.engine.translator;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -352,27 +353,8 @@ public class PathTranslateVisitor extends ElementVisitor<SqlIntercode>
     {
         List<SqlIntercode> unionList = new ArrayList<SqlIntercode>();
 
-        for(QuadMapping mapping : Request.currentRequest().getConfiguration().getMappings(parent.getService()))
+        for(QuadMapping mapping : getCandidates(true, subject, predicate, object))
         {
-            if(!datasets.isEmpty())
-            {
-                ConstantIriMapping graphMapping = mapping.getGraph();
-
-                if(graphMapping == null)
-                    continue;
-
-                IRI graphIri = ((IRI) graphMapping.getValue());
-                boolean useDefaultDataset = graph == null;
-
-                if(datasets.stream().filter(d -> d.isDefault() == useDefaultDataset)
-                        .noneMatch(d -> d.getSourceSelector().equals(graphIri)))
-                    continue;
-            }
-            else if(graph == null && mapping.getGraph() != null)
-            {
-                continue;
-            }
-
             if(mapping.match(graph, subject, predicate, object))
             {
                 SqlIntercode translated = translateMapping(mapping, graph, subject, predicate, object,
@@ -385,29 +367,46 @@ public class PathTranslateVisitor extends ElementVisitor<SqlIntercode>
     }
 
 
-    private SqlIntercode translateNegatedPath(Node subject, List<IRI> negatedIriSet, Node object)
+    /*
+     * Returns the mappings which can match the pattern within the datasets. Unless the datasets are given, the
+     * pattern of the default graph can be restricted to the mappings without a graph.
+     */
+    private List<QuadMapping> getCandidates(boolean restrictDefaultGraph, Node subject, Node predicate, Node object)
     {
-        List<SqlIntercode> unionList = new ArrayList<SqlIntercode>();
+        List<IRI> graphs = null;
 
-        Variable fakePredicate = parent.createVariable(variablePrefix);
-
-        for(QuadMapping mapping : Request.currentRequest().getConfiguration().getMappings(parent.getService()))
+        if(!datasets.isEmpty())
         {
-            if(!datasets.isEmpty())
-            {
-                ConstantIriMapping graphMapping = mapping.getGraph();
+            boolean useDefaultDataset = graph == null;
+            graphs = datasets.stream().filter(d -> d.isDefault() == useDefaultDataset).map(d -> d.getSourceSelector())
+                    .collect(toList());
+        }
+        else if(graph == null && restrictDefaultGraph)
+        {
+            graphs = Collections.singletonList(null);
+        }
+        else if(graph instanceof IRI)
+        {
+            graphs = List.of((IRI) graph);
+        }
 
-                if(graphMapping == null)
-                    continue;
+        Request request = Request.currentRequest();
+        List<QuadMapping> candidates = request.getConfiguration().getMappingIndex(parent.getService())
+                .getCandidates(graphs, subject, predicate, object);
+        request.recordMappingCandidates(candidates.size());
 
-                IRI graphIri = ((IRI) graphMapping.getValue());
-                boolean useDefaultDataset = graph == null;
+        return candidates;
+    }
 
-                if(datasets.stream().filter(d -> d.isDefault() == useDefaultDataset)
-                        .noneMatch(d -> d.getSourceSelector().equals(graphIri)))
-                    continue;
-            }
 
+    private SqlIntercode translateNegatedPath(Node subject, List<IRI> negatedIriSet, Node object)
+    {
+        List<SqlIntercode> unionList = new ArrayList<SqlIntercode>();
+
+        Variable fakePredicate = parent.createVariable(variablePrefix);
+
+        for(QuadMapping mapping : getCandidates(false, subject, fakePredicate, object))
+        {
             if(mapping.match(graph, subject, fakePredicate, object))
             {
                 if(mapping.getPredicate() instanceof ConstantIriMapping)
@@ -3,10 +3,6 @@ package cz.iocb.sparql.engine.translator;
 import static cz.iocb.sparql.engine.mapping.classes.BuiltinClasses.unsupportedIri;
 import static cz.iocb.sparql.engine.mapping.classes.BuiltinClasses.unsupportedLiteral;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import cz.iocb.sparql.engine.mapping.BlankNodeLiteral;
 import cz.iocb.sparql.engine.mapping.classes.DataType;
@@ -23,10 +19,7 @@ import cz.iocb.sparql.engine.translator.imcode.SqlIntercode;
 
 public abstract class ResultHandler implements AutoCloseable
 {
-    final private HashMap<String, List<UserIriClass>> typeIriClassesMap = new HashMap<String, List<UserIriClass>>();
-
-
-    protected final ResourceClass getType(Node value, String variable)
+    protected final ResourceClass getType(Node value)
     {
         if(value instanceof Literal)
         {
@@ -38,28 +31,10 @@ public abstract class ResultHandler implements AutoCloseable
         }
         else if(value instanceof IRI)
         {
-            List<UserIriClass> iriClasses = typeIriClassesMap.computeIfAbsent(variable,
-                    k -> new LinkedList<UserIriClass>(Request.currentRequest().getConfiguration().getIriClasses()));
-
-            Iterator<UserIriClass> it = iriClasses.iterator();
-
-            while(it.hasNext())
-            {
-                UserIriClass resClass = it.next();
-
-                if(resClass.match(value))
-                {
-                    if(resClass != iriClasses.getFirst())
-                    {
-                        it.remove();
-                        iriClasses.addFirst(resClass);
-                    }
-
-                    return resClass;
-                }
-            }
+            UserIriClass resClass = Request.currentRequest().getConfiguration().getIriClassIndex()
+                    .getIriClass((IRI) value);
 
-            return unsupportedIri;
+            return resClass != null ? resClass : unsupportedIri;
         }
         else if(value instanceof BlankNodeLiteral)
         {
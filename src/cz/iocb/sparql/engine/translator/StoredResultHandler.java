@@ -21,6 +21,8 @@ import cz.iocb.sparql.engine.database.SQLRuntimeException;
 import cz.iocb.sparql.engine.database.Table;
 import cz.iocb.sparql.engine.database.TableColumn;
 import cz.iocb.sparql.engine.mapping.classes.ResourceClass;
+import cz.iocb.sparql.engine.mapping.classes.UserIriClass;
+import cz.iocb.sparql.engine.parser.model.IRI;
 import cz.iocb.sparql.engine.parser.model.triple.Node;
 import cz.iocb.sparql.engine.request.Request;
 import cz.iocb.sparql.engine.translator.imcode.SqlIntercode;
@@ -47,6 +49,7 @@ public class StoredResultHandler extends ResultHandler
     private final Map<Column, Column> constants = new HashMap<Column, Column>();
 
     private final LinkedHashMap<Column, Vector<Column>> data = new LinkedHashMap<Column, Vector<Column>>();
+    private final List<Map<String, Node>> pending = new ArrayList<Map<String, Node>>(batchSize);
     int rowCount;
     int batchCount;
 
@@ -60,6 +63,36 @@ public class StoredResultHandler extends ResultHandler
 
     @Override
     public void add(Map<String, Node> row) throws SQLException
+    {
+        pending.add(new HashMap<String, Node>(row));
+
+        if(pending.size() == batchSize)
+            addPending();
+    }
+
+
+    /*
+     * Adds the pending rows. The IRIs of all the rows are resolved at once before the rows are processed.
+     */
+    private void addPending() throws SQLException
+    {
+        List<IRI> iris = new ArrayList<IRI>();
+
+        for(Map<String, Node> row : pending)
+            for(Node node : row.values())
+                if(node instanceof IRI)
+                    iris.add((IRI) node);
+
+        UserIriClass.resolve(request.getConfiguration().getIriClasses(), iris);
+
+        for(Map<String, Node> row : pending)
+            addRow(row);
+
+        pending.clear();
+    }
+
+
+    private void addRow(Map<String, Node> row) throws SQLException
     {
         for(Entry<String, Node> entry : row.entrySet())
         {
@@ -73,7 +106,7 @@ public class StoredResultHandler extends ResultHandler
                 variables.add(variable);
             }
 
-            ResourceClass resClass = getType(entry.getValue(), entry.getKey());
+            ResourceClass resClass = getType(entry.getValue());
             List<Column> vals = resClass.toColumns(entry.getValue());
             List<Column> cols = variable.getMapping(resClass);
             List<String> types = resClass.getSqlTypes();
@@ -137,6 +170,9 @@ public class StoredResultHandler extends ResultHandler
     @Override
     public SqlIntercode get() throws SQLException
     {
+        if(!pending.isEmpty())
+            addPending();
+
         if(rowCount == 0)
             return SqlNoSolution.get();
 
@@ -204,7 +240,7 @@ public class StoredResultHandler extends ResultHandler
     @Override
     public int size()
     {
-        return rowCount;
+        return rowCount + pending.size();
     }
 
 
@@ -235,6 +271,8 @@ public class StoredResultHandler extends ResultHandler
             {
                 stm.execute(sql);
             }
+
+            request.setTemporaryTables();
         }
 
         if(data.isEmpty())
@@ -94,6 +94,7 @@ import cz.iocb.sparql.engine.parser.model.triple.Triple;
 import cz.iocb.sparql.engine.parser.model.triple.Verb;
 import cz.iocb.sparql.engine.request.IriNode;
 import cz.iocb.sparql.engine.request.LanguageTaggedLiteral;
+import cz.iocb.sparql.engine.request.QueryMetrics.Phase;
 import cz.iocb.sparql.engine.request.RdfNode;
 import cz.iocb.sparql.engine.request.ReferenceNode;
 import cz.iocb.sparql.engine.request.Request;
@@ -1267,6 +1268,11 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
             return SqlNoSolution.get();
 
 
+        // all IRIs are resolved at once instead of one by one
+        UserIriClass.resolve(Request.currentRequest().getConfiguration().getIriClasses(), lines.stream()
+                .flatMap(List::stream).filter(n -> n instanceof IRI).map(n -> (IRI) n).collect(toList()));
+
+
         LinkedHashMap<Column, List<Column>> data = new LinkedHashMap<Column, List<Column>>();
         Map<List<Column>, Column> revData = new HashMap<List<Column>, Column>();
         UsedVariables variables = new UsedVariables();
@@ -1604,7 +1610,7 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
             Request request = Request.currentRequest();
 
             try(Result result = new SelectResult(ResultType.SELECT, request.getStatement().executeQuery(code),
-                    request.getBegin(), request.getTimeout()))
+                    request.getBegin(), request.getTimeout(), request, 0, 0))
             {
                 varIndexes = result.getVariableIndexes();
 
@@ -1631,6 +1637,8 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
         ServiceTranslateVisitor visitor = new ServiceTranslateVisitor();
         String serviceCode = visitor.getResultCode(service.getPattern());
 
+        Request request = Request.currentRequest();
+
         try(ResultHandler results = new StoredResultHandler())
         {
             //ResultHandler results = new ValuesResultHandler(mergedVariables);
@@ -1640,6 +1648,8 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
 
             for(RdfNode[] row : rows)
             {
+                request.checkCanceled();
+
                 String endpoint = null;
 
                 if(name instanceof IRI)
@@ -1709,6 +1719,7 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
 
                 /* open connection */
 
+                long serviceStart = System.nanoTime();
                 HttpURLConnection connection = null;
 
                 try
@@ -1718,6 +1729,11 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
                     for(int i = 0; i <= serviceRedirectLimit && url != null; i++)
                     {
                         connection = (HttpURLConnection) (new URI(url)).toURL().openConnection();
+
+                        // a canceled request closes the socket to interrupt the blocking call
+                        HttpURLConnection current = connection;
+                        request.setCancelAction(() -> current.disconnect());
+
                         connection.setRequestMethod("POST");
                         connection.setRequestProperty("content-type",
                                 "application/x-www-form-urlencoded; charset=UTF-8");
@@ -1738,6 +1754,8 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
                 }
                 catch(IOException | URISyntaxException e)
                 {
+                    request.checkCanceled();
+
                     e.printStackTrace();
 
                     if(service.isSilent())
@@ -1748,6 +1766,7 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
                     {
                         messages.add(
                                 new TranslateMessage(MessageType.badServiceEndpoint, service.getRange(), endpoint));
+                        request.recordServiceCall(System.nanoTime() - serviceStart);
                         return context;
                     }
                 }
@@ -1873,6 +1892,8 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
                 }
                 catch(ParserConfigurationException | SAXException | IOException e)
                 {
+                    request.checkCanceled();
+
                     if(e instanceof SAXException && results.size() >= serviceResultLimit)
                     {
                         messages.add(new TranslateMessage(MessageType.serviceResultLimitExceeded, service.getRange()));
@@ -1886,6 +1907,10 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
 
                     return context;
                 }
+                finally
+                {
+                    request.recordServiceCall(System.nanoTime() - serviceStart);
+                }
             }
 
             return results.get();
@@ -1894,6 +1919,10 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
         {
             throw new SQLRuntimeException(e);
         }
+        finally
+        {
+            request.setCancelAction(null);
+        }
     }
 
 
@@ -1926,12 +1955,20 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
 
         try
         {
+            Request request = Request.currentRequest();
+
+            long start = System.nanoTime();
             SqlQuery imcode = (SqlQuery) visitElement(sparqlQuery);
+            request.recordPhase(Phase.TRANSLATE, System.nanoTime() - start);
 
             if(imcode == null)
                 return null;
 
-            return (SqlQuery) imcode.optimize();
+            start = System.nanoTime();
+            SqlQuery optimized = (SqlQuery) imcode.optimize();
+            request.recordPhase(Phase.OPTIMIZE, System.nanoTime() - start);
+
+            return optimized;
         }
         catch(SQLRuntimeException e)
         {
@@ -1953,11 +1990,10 @@ public class TranslateVisitor extends ElementVisitor<SqlIntercode>
         }
         else if(value instanceof IRI)
         {
-            for(UserIriClass resClass : Request.currentRequest().getConfiguration().getIriClasses())
-                if(resClass.match(value))
-                    return resClass;
+            UserIriClass resClass = Request.currentRequest().getConfiguration().getIriClassIndex()
+                    .getIriClass((IRI) value);
 
-            return unsupportedIri;
+            return resClass != null ? resClass : unsupportedIri;
         }
         else if(value instanceof BlankNodeLiteral)
         {
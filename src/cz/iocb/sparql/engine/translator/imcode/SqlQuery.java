@@ -2,6 +2,7 @@ package cz.iocb.sparql.engine.translator.imcode;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -18,6 +19,7 @@ public class SqlQuery extends SqlIntercode
 {
     private final SqlIntercode child;
     private final Collection<String> selectedVariables;
+    private Collection<String> orderByVariables = List.of();
     private int offset = 0;
     private int limit = -1;
 
@@ -49,6 +51,7 @@ public class SqlQuery extends SqlIntercode
     public String translate()
     {
         UsedVariables variables = child.getVariables();
+        HashMap<String, List<String>> columns = new HashMap<String, List<String>>();
         StringBuilder builder = new StringBuilder();
 
         builder.append("SELECT ");
@@ -112,11 +115,11 @@ public class SqlQuery extends SqlIntercode
                         if(resClasses.size() > 1)
                             builder.append(")");
 
-                        builder.append(" AS \"");
+                        String column = variableName.replaceFirst("^@", "") + '#' + tags.get(part).getTag();
+                        columns.computeIfAbsent(variableName, k -> new ArrayList<String>()).add(column);
 
-                        builder.append(variableName.replaceFirst("^@", ""));
-                        builder.append('#');
-                        builder.append(tags.get(part).getTag());
+                        builder.append(" AS \"");
+                        builder.append(column);
                         builder.append('"');
                     }
                 }
@@ -134,6 +137,24 @@ public class SqlQuery extends SqlIntercode
         builder.append(child.translate());
         builder.append(") AS tab");
 
+        boolean hasOrder = false;
+
+        for(String variableName : orderByVariables)
+        {
+            List<String> list = columns.get(variableName);
+
+            if(list == null)
+                continue;
+
+            for(String column : list)
+            {
+                builder.append(hasOrder ? ", \"" : " ORDER BY \"");
+                builder.append(column);
+                builder.append('"');
+                hasOrder = true;
+            }
+        }
+
         if(offset > 0)
         {
             builder.append(" OFFSET ");
@@ -160,4 +181,10 @@ public class SqlQuery extends SqlIntercode
     {
         this.limit = limit;
     }
+
+
+    public void setOrderBy(Collection<String> variables)
+    {
+        this.orderByVariables = variables;
+    }
 }